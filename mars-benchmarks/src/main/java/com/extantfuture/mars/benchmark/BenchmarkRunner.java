@@ -0,0 +1,30 @@
+package com.extantfuture.mars.benchmark;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * run benchmarks with GC profiler always on, so allocation per operation (gc.alloc.rate.norm) is reported for every suite
+ * 运行性能测试，始终开启GC分析，用于发现内存分配的退化
+ * <p>
+ * accepts the same arguments as the JMH command line:
+ * java -cp target/benchmarks.jar com.extantfuture.mars.benchmark.BenchmarkRunner [regexp] [jmh options]
+ * </p>
+ *
+ * @author Rambo, <rambo@extantfuture.com>
+ * @date 2017/7/12 下午3:00
+ */
+public class BenchmarkRunner {
+
+	public static void main(String[] args) throws Exception {
+		CommandLineOptions commandLineOptions = new CommandLineOptions(args);
+		ChainedOptionsBuilder builder = new OptionsBuilder().parent(commandLineOptions).addProfiler(GCProfiler.class);
+		if (commandLineOptions.getIncludes().isEmpty()) {
+			builder.include(BenchmarkRunner.class.getPackage().getName() + ".*");
+		}
+		new Runner(builder.build()).run();
+	}
+}
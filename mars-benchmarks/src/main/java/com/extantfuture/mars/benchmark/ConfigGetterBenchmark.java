@@ -0,0 +1,137 @@
+package com.extantfuture.mars.benchmark;
+
+import com.extantfuture.mars.config.IntConfig;
+import com.extantfuture.mars.config.MarsConfigManager;
+import com.extantfuture.mars.metrics.MarsMetrics;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * benchmark for config getters of MarsConfigManager
+ * 配置查询性能测试，包括字符串、类型化和结构化的查询，使用 -prof gc 查看每次调用的内存分配
+ * <p>
+ * java -jar target/benchmarks.jar ConfigGetterBenchmark -prof gc
+ * </p>
+ *
+ * @author Rambo, <rambo@extantfuture.com>
+ * @date 2017/7/12 下午3:00
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConfigGetterBenchmark {
+
+	private static final String CONFIG_FILE_NAME = "getter_bench";
+
+	// count of config items in the config file
+	@Param({"10", "10000"})
+	private int keyCount;
+
+	// whether lookups are counted by MarsMetrics
+	@Param({"true", "false"})
+	private boolean metricsEnabled;
+
+	private String stringKey;
+	private String intConfigName;
+	private String longConfigName;
+	private String booleanConfigName;
+	private String doubleConfigName;
+	private String missingConfigName;
+	private String listConfigName;
+	private String longSetConfigName;
+	// boxed once, so that only the lookup is measured
+	private Long memberId = 10002L;
+	private IntConfig intHandle;
+
+	@Setup
+	public void setup() {
+		StringBuilder sb = new StringBuilder("[").append(CONFIG_FILE_NAME).append("]\n");
+		for (int i = 0; i < keyCount; i++) {
+			sb.append("key_").append(i).append("=value_").append(i).append('\n');
+		}
+		sb.append("int_item=1024\nlong_item=12345678901\nboolean_item=true\ndouble_item=0.75\n");
+		sb.append("list_item=host1:8080,host2:8080,host3:8080\nlong_set_item=10001,10002,10003\n");
+		MarsConfigManager.reloadConfigContent(sb.toString());
+		stringKey = "key_" + (keyCount / 2);
+		intConfigName = CONFIG_FILE_NAME + ".int_item";
+		longConfigName = CONFIG_FILE_NAME + ".long_item";
+		booleanConfigName = CONFIG_FILE_NAME + ".boolean_item";
+		doubleConfigName = CONFIG_FILE_NAME + ".double_item";
+		missingConfigName = CONFIG_FILE_NAME + ".missing_item";
+		listConfigName = CONFIG_FILE_NAME + ".list_item";
+		longSetConfigName = CONFIG_FILE_NAME + ".long_set_item";
+		intHandle = MarsConfigManager.intHandle(intConfigName, 0);
+		MarsMetrics.setEnabled(metricsEnabled);
+	}
+
+	@TearDown
+	public void tearDown() {
+		MarsMetrics.setEnabled(true);
+	}
+
+	@Benchmark
+	public String getConfigByFileAndKey() {
+		return MarsConfigManager.getConfig(CONFIG_FILE_NAME, stringKey);
+	}
+
+	@Benchmark
+	public String getConfigByConfigName() {
+		return MarsConfigManager.getConfig(intConfigName);
+	}
+
+	@Benchmark
+	public String getConfigMissing() {
+		return MarsConfigManager.getConfigWithDefault(missingConfigName, "default");
+	}
+
+	@Benchmark
+	public int getIntConfig() {
+		return MarsConfigManager.getIntConfig(intConfigName, 0);
+	}
+
+	@Benchmark
+	public long getLongConfig() {
+		return MarsConfigManager.getLongConfig(longConfigName, 0L);
+	}
+
+	@Benchmark
+	public boolean getBooleanConfig() {
+		return MarsConfigManager.getBooleanConfig(booleanConfigName, false);
+	}
+
+	@Benchmark
+	public double getDoubleConfig() {
+		return MarsConfigManager.getDouebleConfig(doubleConfigName, 0D);
+	}
+
+	@Benchmark
+	public List<String> getList() {
+		return MarsConfigManager.getList(listConfigName);
+	}
+
+	@Benchmark
+	public boolean getLongSetContains() {
+		return MarsConfigManager.getLongSet(longSetConfigName).contains(memberId);
+	}
+
+	@Benchmark
+	public int intHandle() {
+		return intHandle.get();
+	}
+}
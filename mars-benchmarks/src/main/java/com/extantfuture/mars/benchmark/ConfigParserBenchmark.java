@@ -0,0 +1,126 @@
+package com.extantfuture.mars.benchmark;
+
+import com.extantfuture.mars.config.ConfigContentParser;
+import com.extantfuture.mars.util.StringUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * benchmark for parsing config content, the streaming byte parser against the old String split based parsing
+ * 配置内容解析性能测试，对比字节流解析与原先基于String split的解析，使用 -prof gc 查看内存分配
+ * <p>
+ * java -jar target/benchmarks.jar ConfigParserBenchmark -prof gc
+ * </p>
+ *
+ * @author Rambo, <rambo@extantfuture.com>
+ * @date 2017/7/7 下午5:10
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConfigParserBenchmark {
+
+	// size of config content in bytes
+	@Param({"1024", "1048576", "4194304"})
+	private int contentSize;
+
+	private byte[] content;
+	private ConfigContentParser parser;
+
+	@Setup
+	public void setup() {
+		content = StringUtil.getUTF8Bytes(buildContent(contentSize));
+		parser = new ConfigContentParser();
+	}
+
+	/**
+	 * config content like our allowlist files, several sections of short items and long id lists
+	 *
+	 * @param size
+	 * @return
+	 */
+	static String buildContent(int size) {
+		StringBuilder sb = new StringBuilder(size + 256);
+		int section = 0;
+		while (sb.length() < size) {
+			sb.append("[file_").append(section).append("]\n");
+			sb.append("# generated config\n");
+			for (int i = 0; i < 20 && sb.length() < size; i++) {
+				sb.append("key_").append(i).append('=').append("value_").append(section).append('_').append(i).append('\n');
+			}
+			sb.append("allow_list=deny;");
+			for (int i = 0; i < 2000 && sb.length() < size; i++) {
+				sb.append(10000000L + i * 7L).append(';');
+			}
+			sb.append('\n');
+			section++;
+		}
+		return sb.toString();
+	}
+
+	@Benchmark
+	public Map<String, Map<String, String>> streamingParse() {
+		Map<String, Map<String, String>> updates = new HashMap<>();
+		parser.parse(content, null, updates);
+		return updates;
+	}
+
+	@Benchmark
+	public Map<String, Map<String, String>> splitParse() {
+		Map<String, Map<String, String>> updates = new HashMap<>();
+		legacyParse(updates, StringUtil.getUTF8String(content));
+		return updates;
+	}
+
+	/**
+	 * the String split based parsing before the streaming parser, kept here as the baseline
+	 *
+	 * @param updates
+	 * @param configContent
+	 */
+	private static void legacyParse(Map<String, Map<String, String>> updates, String configContent) {
+		if (StringUtil.isNotEmpty(configContent)) {
+			String[] lines = StringUtil.split(configContent, "\n");
+			String configFileName = null;
+			for (String line : lines) {
+				if (StringUtil.isNotEmpty(line)) {
+					if (line.startsWith("#")) {
+						continue;
+					}
+					if (line.startsWith("[") && line.endsWith("]")) {
+						configFileName = line.substring(1, line.length() - 1);
+						if (StringUtil.isNotEmpty(configFileName) && !updates.containsKey(configFileName)) {
+							updates.put(configFileName, new HashMap<String, String>());
+						}
+					} else if (line.contains("=") && StringUtil.isNotEmpty(configFileName)) {
+						String[] params = StringUtil.splitFirst(line, "=");
+						if (null != params && 2 == params.length && StringUtil.isNotEmpty(params[0]) && StringUtil.isNotEmpty(params[1])) {
+							Map<String, String> map = updates.get(configFileName);
+							if (null == map) {
+								map = new HashMap<>();
+								updates.put(configFileName, map);
+							}
+							map.put(params[0], params[1]);
+						}
+					}
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,75 @@
+package com.extantfuture.mars.benchmark;
+
+import com.extantfuture.mars.config.ConfigChangeSet;
+import com.extantfuture.mars.config.MarsConfigManager;
+import com.extantfuture.mars.util.StringUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * benchmark for reloading whole config content, parse, diff and publish, from 1KB to 10MB
+ * 配置重载性能测试，包括解析、比对和发布快照，使用 -prof gc 查看内存分配
+ * <p>
+ * the two contents are reloaded in turn, so every reload really changes config items.
+ * java -jar target/benchmarks.jar ConfigReloadBenchmark -prof gc
+ * </p>
+ *
+ * @author Rambo, <rambo@extantfuture.com>
+ * @date 2017/7/12 下午3:00
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx2g"})
+public class ConfigReloadBenchmark {
+
+	// size of config content in bytes
+	@Param({"1024", "102400", "1048576", "10485760"})
+	private int contentSize;
+
+	private String[] contents;
+	private ByteBuffer[] buffers;
+	private int index;
+
+	@Setup
+	public void setup() {
+		String content = ConfigParserBenchmark.buildContent(contentSize);
+		// the same items with other values
+		String changed = content.replace("value_", "changed_");
+		contents = new String[]{content, changed};
+		buffers = new ByteBuffer[]{ByteBuffer.wrap(StringUtil.getUTF8Bytes(content)).asReadOnlyBuffer(),
+				ByteBuffer.wrap(StringUtil.getUTF8Bytes(changed)).asReadOnlyBuffer()};
+		MarsConfigManager.reloadConfigContent(contents[0]);
+	}
+
+	@Benchmark
+	public ConfigChangeSet reloadString() {
+		index ^= 1;
+		return MarsConfigManager.reloadConfigContent(contents[index]);
+	}
+
+	@Benchmark
+	public ConfigChangeSet reloadBuffer() {
+		index ^= 1;
+		return MarsConfigManager.reloadConfigContent(buffers[index].duplicate());
+	}
+
+	@Benchmark
+	public ConfigChangeSet reloadUnchanged() {
+		return MarsConfigManager.reloadConfigContent(contents[index]);
+	}
+}
@@ -0,0 +1,107 @@
+package com.extantfuture.mars.benchmark;
+
+import com.extantfuture.mars.config.ConfigChangeSet;
+import com.extantfuture.mars.config.MarsConfigManager;
+import com.extantfuture.mars.config.gray.GrayConfigManager;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * benchmark for reading config and gray rules while config is reloaded by another thread
+ * 读写竞争性能测试：多个线程读配置和灰度规则，同时一个线程不断重载配置
+ * <p>
+ * readers should not slow down or allocate more when reloading, compare with the readOnly group.
+ * java -jar target/benchmarks.jar ContendedReadBenchmark -prof gc
+ * </p>
+ *
+ * @author Rambo, <rambo@extantfuture.com>
+ * @date 2017/7/12 下午3:00
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ContendedReadBenchmark {
+
+	private static final String CONFIG_FILE_NAME = "contended_bench";
+	private static final String CONFIG_NAME = CONFIG_FILE_NAME + ".key_5";
+	private static final String GRAY_KEY = CONFIG_FILE_NAME + ".feature";
+
+	// pause between two reloads in microseconds, 0 to reload as fast as possible
+	@Param({"0", "1000"})
+	private long reloadIntervalMicros;
+
+	private String[] contents;
+	private int index;
+
+	@Setup
+	public void setup() {
+		contents = new String[2];
+		for (int c = 0; c < contents.length; c++) {
+			StringBuilder sb = new StringBuilder("[").append(CONFIG_FILE_NAME).append("]\n");
+			for (int i = 0; i < 1000; i++) {
+				sb.append("key_").append(i).append("=value_").append(c).append('_').append(i).append('\n');
+			}
+			sb.append("feature=deny;%").append(2 + c).append(";pct:10\n");
+			contents[c] = sb.toString();
+		}
+		MarsConfigManager.reloadConfigContent(contents[0]);
+	}
+
+	@Benchmark
+	@Group("readWhileReload")
+	@GroupThreads(3)
+	public String readConfig() {
+		return MarsConfigManager.getConfig(CONFIG_NAME);
+	}
+
+	@Benchmark
+	@Group("readWhileReload")
+	@GroupThreads(3)
+	public boolean readGray() {
+		return GrayConfigManager.isAllowed(GRAY_KEY, ThreadLocalRandom.current().nextLong());
+	}
+
+	@Benchmark
+	@Group("readWhileReload")
+	@GroupThreads(1)
+	public ConfigChangeSet reload() {
+		if (reloadIntervalMicros > 0L) {
+			LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(reloadIntervalMicros));
+		}
+		index ^= 1;
+		// recompiles the changed gray rules in background, the same as a config source does
+		return MarsConfigManager.reloadConfigContent(contents[index]);
+	}
+
+	@Benchmark
+	@Group("readOnly")
+	@GroupThreads(3)
+	public String readConfigOnly() {
+		return MarsConfigManager.getConfig(CONFIG_NAME);
+	}
+
+	@Benchmark
+	@Group("readOnly")
+	@GroupThreads(3)
+	public boolean readGrayOnly() {
+		return GrayConfigManager.isAllowed(GRAY_KEY, ThreadLocalRandom.current().nextLong());
+	}
+}
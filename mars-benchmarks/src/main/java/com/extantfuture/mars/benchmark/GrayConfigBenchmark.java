@@ -0,0 +1,122 @@
+package com.extantfuture.mars.benchmark;
+
+import com.extantfuture.mars.config.MarsConfigManager;
+import com.extantfuture.mars.config.gray.GrayConfigManager;
+import com.extantfuture.mars.config.gray.GrayKeySet;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.BitSet;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * benchmark for GrayConfigManager.isAllowed
+ * 灰度判断性能测试，使用 -prof gc 查看每次调用的内存分配(gc.alloc.rate.norm)
+ * <p>
+ * java -jar target/benchmarks.jar GrayConfigBenchmark -prof gc
+ * </p>
+ *
+ * @author Rambo, <rambo@extantfuture.com>
+ * @date 2017/6/22 下午4:20
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GrayConfigBenchmark {
+
+	private static final String CONFIG_FILE_NAME = "gray_bench";
+	private static final String CONFIG_KEY = CONFIG_FILE_NAME + ".feature";
+
+	// count of ids in name list
+	@Param({"10", "1000", "100000"})
+	private int listSize;
+
+	// count of modulus rules
+	@Param({"0", "3"})
+	private int percentCount;
+
+	// count of ids or keys in one batch call
+	private static final int BATCH_SIZE = 1000;
+	private static final int KEY_COUNT = 30;
+
+	private long allowedId;
+	private long deniedId;
+	private String allowedName;
+	private String deniedName;
+	private long[] batchIds;
+	private GrayKeySet keySet;
+
+	@Setup
+	public void setup() {
+		StringBuilder rule = new StringBuilder("deny;");
+		for (int i = 0; i < listSize; i++) {
+			rule.append(1000000L + i * 7L).append(';');
+		}
+		for (int i = 0; i < percentCount; i++) {
+			rule.append('%').append(1000 + i).append(';');
+		}
+		StringBuilder content = new StringBuilder("[").append(CONFIG_FILE_NAME).append("]\nfeature=").append(rule).append('\n');
+		String[] configKeys = new String[KEY_COUNT];
+		for (int i = 0; i < KEY_COUNT; i++) {
+			content.append("flag_").append(i).append("=deny;1000000;pct:").append(i).append('\n');
+			configKeys[i] = CONFIG_FILE_NAME + ".flag_" + i;
+		}
+		MarsConfigManager.reloadConfigContent(content.toString());
+		allowedId = 1000000L + (listSize - 1) * 7L;
+		deniedId = 999L;
+		allowedName = String.valueOf(allowedId);
+		deniedName = "user_" + deniedId;
+		batchIds = new long[BATCH_SIZE];
+		for (int i = 0; i < BATCH_SIZE; i++) {
+			batchIds[i] = 1000000L + i * 3L;
+		}
+		keySet = new GrayKeySet(configKeys);
+	}
+
+	@Benchmark
+	public boolean isAllowedLongHit() {
+		return GrayConfigManager.isAllowed(CONFIG_KEY, allowedId);
+	}
+
+	@Benchmark
+	public boolean isAllowedLongMiss() {
+		return GrayConfigManager.isAllowed(CONFIG_KEY, deniedId);
+	}
+
+	@Benchmark
+	public boolean isAllowedStringHit() {
+		return GrayConfigManager.isAllowed(CONFIG_KEY, allowedName);
+	}
+
+	@Benchmark
+	public boolean isAllowedStringMiss() {
+		return GrayConfigManager.isAllowed(CONFIG_KEY, deniedName);
+	}
+
+	@Benchmark
+	public BitSet isAllowedBatch() {
+		return GrayConfigManager.isAllowed(CONFIG_KEY, batchIds);
+	}
+
+	@Benchmark
+	public BitSet evaluateAllKeys() {
+		return GrayConfigManager.evaluateAll(allowedId, keySet);
+	}
+
+	@Benchmark
+	public boolean isAllowedByFileAndKey() {
+		return GrayConfigManager.isAllowed(CONFIG_FILE_NAME, "feature", allowedId);
+	}
+}
@@ -0,0 +1,262 @@
+package com.extantfuture.mars.benchmark;
+
+import com.extantfuture.mars.config.ConfigChange;
+import com.extantfuture.mars.config.ConfigSnapshot;
+import com.extantfuture.mars.config.MarsConfigManager;
+import com.extantfuture.mars.config.gray.GrayConfigManager;
+import com.extantfuture.mars.config.listener.ConfigListenerManager;
+import com.extantfuture.mars.config.source.ConfigReloadEngine;
+import com.extantfuture.mars.config.source.InMemoryConfigSource;
+import com.extantfuture.mars.metrics.LatencyHistogram;
+import com.extantfuture.mars.metrics.MarsMetrics;
+import com.extantfuture.mars.util.StringUtil;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * long running stress harness for reading config and gray rules while a source pushes reloads at a high rate
+ * 读写并发压测：多个读线程不断读取配置和灰度规则，同时模拟配置来源高频推送变更，检查一致性并统计读延迟
+ * <p>
+ * the writer pushes version v of two config files as one batch through {@link ConfigReloadEngine}, the same path as
+ * ZooKeeper and etcd, and readers check:
+ * <ul>
+ * <li>a snapshot never holds a partially applied file: all items of a file have the same version</li>
+ * <li>a snapshot never holds files of different versions from one batch</li>
+ * <li>getters never return NULL for an item existing in every version, items existing only in even versions come and go</li>
+ * <li>the version seen by one reader never goes back</li>
+ * <li>isAllowed never denies an id allowed by every version of the gray rule, even while the rule is recompiled</li>
+ * <li>listeners see the version increasing</li>
+ * </ul>
+ * read latency is reported before and during reloads, exits with 1 if any check fails.
+ * java -cp target/benchmarks.jar com.extantfuture.mars.benchmark.ReloadStressHarness [readers] [seconds] [keys] [reloadIntervalMicros]
+ * </p>
+ *
+ * @author Rambo, <rambo@extantfuture.com>
+ * @date 2017/7/12 下午6:00
+ */
+public class ReloadStressHarness {
+
+	private static final String FILE_A = "stress_a";
+	private static final String FILE_B = "stress_b";
+	private static final String VERSION_KEY = "version";
+	private static final String GRAY_KEY = FILE_A + ".feature";
+	// allowed by gray rule of every version
+	private static final long ALWAYS_ALLOWED_ID = 7L * 11L * 15L;
+	// count of failures printed
+	private static final int MAX_PRINTED_FAILURES = 20;
+
+	private final int readerCount;
+	private final long seconds;
+	private final int keyCount;
+	private final long reloadIntervalMicros;
+
+	private final AtomicLong failureCount = new AtomicLong();
+	private final AtomicLong readCount = new AtomicLong();
+	private final AtomicLong lastListenedVersion = new AtomicLong(-1L);
+	private final AtomicReference<String> firstFailure = new AtomicReference<String>();
+	private final LatencyHistogram baselineLatency = MarsMetrics.histogram("stress.read.baseline");
+	private final LatencyHistogram reloadingLatency = MarsMetrics.histogram("stress.read.reloading");
+	private volatile boolean reloading;
+	private volatile boolean stopped;
+
+	public ReloadStressHarness(int readerCount, long seconds, int keyCount, long reloadIntervalMicros) {
+		this.readerCount = readerCount;
+		this.seconds = seconds;
+		this.keyCount = keyCount;
+		this.reloadIntervalMicros = reloadIntervalMicros;
+	}
+
+	public static void main(String[] args) throws Exception {
+		int readerCount = args.length > 0 ? Integer.parseInt(args[0]) : Math.max(2, Runtime.getRuntime().availableProcessors() * 2);
+		long seconds = args.length > 1 ? Long.parseLong(args[1]) : 30L;
+		int keyCount = args.length > 2 ? Integer.parseInt(args[2]) : 1000;
+		long reloadIntervalMicros = args.length > 3 ? Long.parseLong(args[3]) : 0L;
+		boolean passed = new ReloadStressHarness(readerCount, seconds, keyCount, reloadIntervalMicros).run();
+		System.exit(passed ? 0 : 1);
+	}
+
+	/**
+	 * run baseline for a quarter of the time, then reload for the rest
+	 *
+	 * @return true if no check fails
+	 * @throws Exception
+	 */
+	public boolean run() throws Exception {
+		System.out.println(StringUtil.concat("stress readers=", readerCount, ", seconds=", seconds, ", keys=", keyCount,
+											 ", reloadIntervalMicros=", reloadIntervalMicros));
+		InMemoryConfigSource source = new InMemoryConfigSource("stress");
+		source.putAll(buildVersion(0L));
+		ConfigReloadEngine engine = new ConfigReloadEngine(source, null);
+		engine.start();
+		ConfigListenerManager.setWindowMillis(0L);
+		ConfigListenerManager.addListener(FILE_A + "." + VERSION_KEY, this::onVersionChange);
+
+		List<Thread> readerList = new ArrayList<Thread>();
+		CountDownLatch readyLatch = new CountDownLatch(readerCount);
+		for (int i = 0; i < readerCount; i++) {
+			Thread reader = new Thread(() -> read(readyLatch), "stress-reader-" + i);
+			reader.setDaemon(true);
+			reader.start();
+			readerList.add(reader);
+		}
+		readyLatch.await();
+
+		long totalMillis = TimeUnit.SECONDS.toMillis(seconds);
+		Thread.sleep(totalMillis / 4);
+		long baselineReads = readCount.get();
+		reloading = true;
+		long version = 0L;
+		long reloadStartTs = System.nanoTime();
+		long endTs = reloadStartTs + TimeUnit.MILLISECONDS.toNanos(totalMillis - totalMillis / 4);
+		while (System.nanoTime() < endTs) {
+			version++;
+			source.putAll(buildVersion(version));
+			if (reloadIntervalMicros > 0L) {
+				LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(reloadIntervalMicros));
+			}
+		}
+		double reloadSeconds = (System.nanoTime() - reloadStartTs) / 1e9D;
+		stopped = true;
+		for (Thread reader : readerList) {
+			reader.join();
+		}
+		engine.close();
+
+		System.out.println(StringUtil.concat("reloads=", version, ", reloads/s=", (long) (version / reloadSeconds),
+											 ", reads=", readCount.get(), ", baselineReads=", baselineReads,
+											 ", lastListenedVersion=", lastListenedVersion.get()));
+		printLatency(baselineLatency);
+		printLatency(reloadingLatency);
+		printLatency(MarsMetrics.RELOAD_LATENCY);
+		if (failureCount.get() > 0L) {
+			System.out.println("FAILED, failures=" + failureCount.get() + ", first=" + firstFailure.get());
+			return false;
+		}
+		System.out.println("PASSED");
+		return true;
+	}
+
+	/**
+	 * content of both files at version, the gray rule changes with version but always allows ALWAYS_ALLOWED_ID
+	 *
+	 * @param version
+	 * @return
+	 */
+	private Map<String, String> buildVersion(long version) {
+		Map<String, String> contentMap = new LinkedHashMap<String, String>();
+		for (String configFileName : new String[]{FILE_A, FILE_B}) {
+			StringBuilder sb = new StringBuilder(keyCount * 16);
+			sb.append(VERSION_KEY).append('=').append(version).append('\n');
+			for (int i = 0; i < keyCount; i++) {
+				sb.append("key_").append(i).append('=').append(version).append('\n');
+			}
+			if (0L == version % 2) {
+				sb.append("even_only=").append(version).append('\n');
+			}
+			long modulus = 7L + version % 3 * 4L;
+			sb.append("feature=deny;").append(version).append(";%").append(modulus).append(";pct:").append(version % 50)
+			  .append('\n');
+			contentMap.put(configFileName, sb.toString());
+		}
+		return contentMap;
+	}
+
+	private void read(CountDownLatch readyLatch) {
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		long lastVersion = -1L;
+		readyLatch.countDown();
+		while (!stopped) {
+			LatencyHistogram latency = reloading ? reloadingLatency : baselineLatency;
+
+			// getters, one item that exists in every version
+			String configName = FILE_A + ".key_" + random.nextInt(keyCount);
+			long startTs = System.nanoTime();
+			String value = MarsConfigManager.getConfig(configName);
+			latency.record(System.nanoTime() - startTs);
+			if (null == value) {
+				fail("NULL for " + configName);
+			}
+
+			startTs = System.nanoTime();
+			long version = MarsConfigManager.getLongConfig(FILE_A + "." + VERSION_KEY, -1L);
+			latency.record(System.nanoTime() - startTs);
+			if (version < lastVersion) {
+				fail("version goes back from " + lastVersion + " to " + version);
+			}
+			lastVersion = version;
+
+			startTs = System.nanoTime();
+			boolean allowed = GrayConfigManager.isAllowed(GRAY_KEY, ALWAYS_ALLOWED_ID);
+			latency.record(System.nanoTime() - startTs);
+			if (!allowed) {
+				fail("id " + ALWAYS_ALLOWED_ID + " denied by " + MarsConfigManager.getConfig(GRAY_KEY));
+			}
+			GrayConfigManager.isAllowed(GRAY_KEY, random.nextLong());
+
+			checkSnapshot(MarsConfigManager.getSnapshot(), random);
+			readCount.incrementAndGet();
+		}
+	}
+
+	/**
+	 * a snapshot holds whole files of the same batch
+	 *
+	 * @param snapshot
+	 * @param random
+	 */
+	private void checkSnapshot(ConfigSnapshot snapshot, ThreadLocalRandom random) {
+		String versionA = snapshot.getConfig(FILE_A, VERSION_KEY);
+		String versionB = snapshot.getConfig(FILE_B, VERSION_KEY);
+		if (null == versionA || !versionA.equals(versionB)) {
+			fail("files of different batches in snapshot " + snapshot.getVersion() + ", a=" + versionA + ", b=" + versionB);
+			return;
+		}
+		for (String configFileName : new String[]{FILE_A, FILE_B}) {
+			String key = "key_" + random.nextInt(keyCount);
+			String value = snapshot.getConfig(configFileName, key);
+			if (!versionA.equals(value)) {
+				fail("partially applied file " + configFileName + " in snapshot " + snapshot.getVersion() + ", version="
+							 + versionA + ", " + key + "=" + value);
+			}
+			String evenOnly = snapshot.getConfig(configFileName, "even_only");
+			boolean even = 0L == Long.parseLong(versionA) % 2;
+			if (even != (null != evenOnly)) {
+				fail("stale item even_only=" + evenOnly + " of " + configFileName + " at version " + versionA);
+			}
+		}
+	}
+
+	private void onVersionChange(List<ConfigChange> changes) {
+		for (ConfigChange change : changes) {
+			long version = StringUtil.convertLong(change.getNewValue(), -1L);
+			long last = lastListenedVersion.getAndSet(version);
+			if (version <= last) {
+				fail("listener version goes back from " + last + " to " + version);
+			}
+		}
+	}
+
+	private void fail(String message) {
+		long count = failureCount.incrementAndGet();
+		firstFailure.compareAndSet(null, message);
+		if (count <= MAX_PRINTED_FAILURES) {
+			System.out.println("FAILURE " + message);
+		}
+	}
+
+	private static void printLatency(LatencyHistogram histogram) {
+		System.out.println(StringUtil.concat(histogram.getName(), " count=", histogram.getCount(), ", p50=",
+											 histogram.getValueAtPercentile(50D), "ns, p99=",
+											 histogram.getValueAtPercentile(99D), "ns, p999=",
+											 histogram.getValueAtPercentile(99.9D), "ns, max=", histogram.getMax(), "ns"));
+	}
+}
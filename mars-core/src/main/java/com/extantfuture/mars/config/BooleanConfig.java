@@ -0,0 +1,45 @@
+package com.extantfuture.mars.config;
+
+import com.extantfuture.mars.util.StringUtil;
+
+/**
+ * pre-resolved boolean config item
+ * 预解析的boolean型配置项
+ *
+ * @author Rambo, <rambo@extantfuture.com>
+ * @date 2017/6/21 上午11:05
+ */
+public final class BooleanConfig extends ConfigHandle {
+
+	private final boolean defaultConfig;
+	private volatile boolean value;
+
+	BooleanConfig(String configName, boolean defaultConfig) {
+		super(configName);
+		this.defaultConfig = defaultConfig;
+		this.value = defaultConfig;
+	}
+
+	@Override
+	void update(String value) {
+		this.value = null == value ? defaultConfig : StringUtil.convertBoolean(value, defaultConfig);
+	}
+
+	/**
+	 * get cached value, default config if missing or malformed
+	 *
+	 * @return
+	 */
+	public boolean get() {
+		return value;
+	}
+
+	public boolean getDefaultConfig() {
+		return defaultConfig;
+	}
+
+	@Override
+	public String toString() {
+		return "BooleanConfig [configName=" + getConfigName() + ", value=" + value + ", defaultConfig=" + defaultConfig + "]";
+	}
+}
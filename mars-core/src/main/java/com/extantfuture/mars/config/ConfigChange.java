@@ -0,0 +1,64 @@
+package com.extantfuture.mars.config;
+
+/**
+ * change of one config item between two snapshots
+ * 单个配置项的变更
+ *
+ * @author Rambo, <rambo@extantfuture.com>
+ * @date 2017/6/23 下午2:40
+ */
+public final class ConfigChange {
+
+	private final String configFileName;
+	private final String key;
+	// NULL when added
+	private final String oldValue;
+	// NULL when deleted
+	private final String newValue;
+
+	public ConfigChange(String configFileName, String key, String oldValue, String newValue) {
+		this.configFileName = configFileName;
+		this.key = key;
+		this.oldValue = oldValue;
+		this.newValue = newValue;
+	}
+
+	public String getConfigFileName() {
+		return configFileName;
+	}
+
+	public String getKey() {
+		return key;
+	}
+
+	/**
+	 * 格式： configFileName.key
+	 *
+	 * @return
+	 */
+	public String getConfigName() {
+		return configFileName + "." + key;
+	}
+
+	public String getOldValue() {
+		return oldValue;
+	}
+
+	public String getNewValue() {
+		return newValue;
+	}
+
+	public boolean isAdded() {
+		return null == oldValue;
+	}
+
+	public boolean isDeleted() {
+		return null == newValue;
+	}
+
+	@Override
+	public String toString() {
+		return "ConfigChange [configFileName=" + configFileName + ", key=" + key + ", oldValue=" + oldValue + ", newValue="
+				+ newValue + "]";
+	}
+}
@@ -0,0 +1,84 @@
+package com.extantfuture.mars.config;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * all changes applied by one reload
+ * 一次重新加载产生的全部配置变更
+ *
+ * @author Rambo, <rambo@extantfuture.com>
+ * @date 2017/6/23 下午2:40
+ */
+public final class ConfigChangeSet {
+
+	// version of the snapshot after the changes are applied
+	private final long version;
+	private final List<ConfigChange> changes;
+	private final Set<String> configFileNames;
+
+	ConfigChangeSet(long version, List<ConfigChange> changes) {
+		this.version = version;
+		this.changes = Collections.unmodifiableList(changes);
+		Set<String> fileNames = new LinkedHashSet<>();
+		for (ConfigChange change : changes) {
+			fileNames.add(change.getConfigFileName());
+		}
+		this.configFileNames = Collections.unmodifiableSet(fileNames);
+	}
+
+	/**
+	 * change set without any change
+	 *
+	 * @param version current version
+	 * @return
+	 */
+	static ConfigChangeSet empty(long version) {
+		return new ConfigChangeSet(version, Collections.<ConfigChange>emptyList());
+	}
+
+	public long getVersion() {
+		return version;
+	}
+
+	public List<ConfigChange> getChanges() {
+		return changes;
+	}
+
+	/**
+	 * changes of one config file
+	 *
+	 * @param configFileName
+	 * @return
+	 */
+	public List<ConfigChange> getChanges(String configFileName) {
+		List<ConfigChange> list = new ArrayList<>();
+		for (ConfigChange change : changes) {
+			if (change.getConfigFileName().equals(configFileName)) {
+				list.add(change);
+			}
+		}
+		return list;
+	}
+
+	/**
+	 * names of config files with any change
+	 *
+	 * @return
+	 */
+	public Set<String> getConfigFileNames() {
+		return configFileNames;
+	}
+
+	public boolean isEmpty() {
+		return changes.isEmpty();
+	}
+
+	@Override
+	public String toString() {
+		return "ConfigChangeSet [version=" + version + ", changes=" + changes + "]";
+	}
+}
@@ -0,0 +1,213 @@
+package com.extantfuture.mars.config;
+
+import com.extantfuture.mars.util.StringUtil;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * single pass parser of config content in UTF-8 bytes
+ * 配置内容解析器，直接在字节上一次扫描完成解析
+ * <p>
+ * lines, [configFileName] sections, # comments and key=value boundaries are found in place,
+ * no String is built for the whole content or for a line, only keys and values are decoded.
+ * keys and section names are interned, a key seen before costs no allocation.
+ * the rules are the same as before: a line starting with # is a comment, a line in [] starts a section,
+ * key is before the first = and value is after it, items with blank key or value are ignored, nothing is trimmed
+ * </p>
+ * <p>
+ * not thread safe, the intern table is reused by parses on the same parser
+ * </p>
+ *
+ * @author Rambo, <rambo@extantfuture.com>
+ * @date 2017/7/7 下午2:30
+ */
+public final class ConfigContentParser {
+
+	// intern table is cleared when it grows beyond this, keeps memory bounded when keys keep changing
+	private static final int MAX_INTERNED = 1 << 16;
+
+	// open addressing intern table for keys and section names
+	private byte[][] internBytes = new byte[64][];
+	private String[] internStrings = new String[64];
+	private int[] internHashes = new int[64];
+	private int internCount;
+	// copy buffer to decode from direct buffers
+	private byte[] scratch = new byte[256];
+
+	/**
+	 * parse config content
+	 *
+	 * @param content               UTF-8 bytes
+	 * @param defaultConfigFileName config file of items before any [configFileName] line, NULL to ignore them
+	 * @param updates               collect parsed config items, configFileName -> (key -> value)
+	 */
+	public void parse(byte[] content, String defaultConfigFileName, Map<String, Map<String, String>> updates) {
+		parse(null == content ? null : ByteBuffer.wrap(content), defaultConfigFileName, updates);
+	}
+
+	/**
+	 * parse config content from position to limit of the buffer, position of the buffer is not changed
+	 *
+	 * @param content               UTF-8 bytes, heap or direct
+	 * @param defaultConfigFileName config file of items before any [configFileName] line, NULL to ignore them
+	 * @param updates               collect parsed config items, configFileName -> (key -> value)
+	 */
+	public void parse(ByteBuffer content, String defaultConfigFileName, Map<String, Map<String, String>> updates) {
+		String configFileName = defaultConfigFileName;
+		boolean hasSection = false;
+		if (null != content) {
+			int end = content.limit();
+			int lineStart = content.position();
+			while (lineStart < end) {
+				int lineEnd = lineStart;
+				while (lineEnd < end && '\n' != content.get(lineEnd)) {
+					lineEnd++;
+				}
+				if (!isBlank(content, lineStart, lineEnd)) {
+					byte first = content.get(lineStart);
+					if ('#' == first) {
+						// comment
+					} else if ('[' == first && ']' == content.get(lineEnd - 1) && lineEnd - lineStart >= 2) {
+						// config file name
+						configFileName = intern(content, lineStart + 1, lineEnd - 1);
+						hasSection = true;
+						if (!isBlank(content, lineStart + 1, lineEnd - 1) && !updates.containsKey(configFileName)) {
+							// a config file without any item means all items are deleted
+							updates.put(configFileName, new HashMap<String, String>());
+						}
+					} else {
+						int separator = indexOf(content, (byte) '=', lineStart, lineEnd);
+						if (separator >= 0 && StringUtil.isNotEmpty(configFileName) && !isBlank(content, lineStart, separator)
+								&& !isBlank(content, separator + 1, lineEnd)) {
+							Map<String, String> map = updates.get(configFileName);
+							if (null == map) {
+								map = new HashMap<>();
+								updates.put(configFileName, map);
+							}
+							map.put(intern(content, lineStart, separator), decode(content, separator + 1, lineEnd));
+						}
+					}
+				}
+				lineStart = lineEnd + 1;
+			}
+		}
+		if (!hasSection && StringUtil.isNotEmpty(defaultConfigFileName) && !updates.containsKey(defaultConfigFileName)) {
+			// plain config file without any item
+			updates.put(defaultConfigFileName, new HashMap<String, String>());
+		}
+	}
+
+	/**
+	 * same as String.trim().isEmpty(), bytes of multi-byte UTF-8 chars are never blank
+	 */
+	private static boolean isBlank(ByteBuffer content, int from, int to) {
+		for (int i = from; i < to; i++) {
+			if ((content.get(i) & 0xff) > ' ') {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static int indexOf(ByteBuffer content, byte b, int from, int to) {
+		for (int i = from; i < to; i++) {
+			if (b == content.get(i)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private String decode(ByteBuffer content, int from, int to) {
+		int length = to - from;
+		if (content.hasArray()) {
+			return new String(content.array(), content.arrayOffset() + from, length, StandardCharsets.UTF_8);
+		}
+		if (scratch.length < length) {
+			scratch = new byte[Math.max(length, scratch.length * 2)];
+		}
+		for (int i = 0; i < length; i++) {
+			scratch[i] = content.get(from + i);
+		}
+		return new String(scratch, 0, length, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * decode bytes into String, return the same String for the same bytes
+	 */
+	private String intern(ByteBuffer content, int from, int to) {
+		int hash = 0;
+		for (int i = from; i < to; i++) {
+			hash = 31 * hash + content.get(i);
+		}
+		int mask = internHashes.length - 1;
+		int index = (hash ^ (hash >>> 16)) & mask;
+		while (null != internBytes[index]) {
+			if (hash == internHashes[index] && equals(internBytes[index], content, from, to)) {
+				return internStrings[index];
+			}
+			index = (index + 1) & mask;
+		}
+		String value = decode(content, from, to);
+		if (internCount >= MAX_INTERNED) {
+			clearInternTable();
+		} else if ((internCount + 1) * 2 > internHashes.length) {
+			resizeInternTable();
+		}
+		byte[] bytes = new byte[to - from];
+		for (int i = 0; i < bytes.length; i++) {
+			bytes[i] = content.get(from + i);
+		}
+		put(bytes, value, hash);
+		return value;
+	}
+
+	private static boolean equals(byte[] bytes, ByteBuffer content, int from, int to) {
+		if (bytes.length != to - from) {
+			return false;
+		}
+		for (int i = 0; i < bytes.length; i++) {
+			if (bytes[i] != content.get(from + i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private void put(byte[] bytes, String value, int hash) {
+		int mask = internHashes.length - 1;
+		int index = (hash ^ (hash >>> 16)) & mask;
+		while (null != internBytes[index]) {
+			index = (index + 1) & mask;
+		}
+		internBytes[index] = bytes;
+		internStrings[index] = value;
+		internHashes[index] = hash;
+		internCount++;
+	}
+
+	private void resizeInternTable() {
+		byte[][] oldBytes = internBytes;
+		String[] oldStrings = internStrings;
+		int[] oldHashes = internHashes;
+		internBytes = new byte[oldBytes.length * 2][];
+		internStrings = new String[oldBytes.length * 2];
+		internHashes = new int[oldBytes.length * 2];
+		internCount = 0;
+		for (int i = 0; i < oldBytes.length; i++) {
+			if (null != oldBytes[i]) {
+				put(oldBytes[i], oldStrings[i], oldHashes[i]);
+			}
+		}
+	}
+
+	private void clearInternTable() {
+		internBytes = new byte[64][];
+		internStrings = new String[64];
+		internHashes = new int[64];
+		internCount = 0;
+	}
+}
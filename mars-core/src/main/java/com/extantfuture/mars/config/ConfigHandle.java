@@ -0,0 +1,71 @@
+package com.extantfuture.mars.config;
+
+import com.extantfuture.mars.util.StringUtil;
+
+/**
+ * pre-resolved handle of a config item
+ * 预解析的配置项句柄
+ * <p>
+ * the config name is resolved once when the handle is created and the typed value is refreshed on each reload,
+ * so reading a handle costs only one volatile read, create it once and keep it in a static field:
+ * <pre>
+ * private static final IntConfig PAGE_SIZE = MarsConfigManager.intHandle("feed_conf.page_size", 10);
+ * ...
+ * int pageSize = PAGE_SIZE.get();
+ * </pre>
+ * </p>
+ *
+ * @author Rambo, <rambo@extantfuture.com>
+ * @date 2017/6/21 上午11:05
+ */
+public abstract class ConfigHandle {
+
+	// 格式： configFileName.key
+	private final String configName;
+	private final String configFileName;
+	private final String key;
+
+	ConfigHandle(String configName) {
+		this.configName = configName;
+		String[] params = StringUtil.splitFirst(configName, ".");
+		if (null != params && 2 == params.length) {
+			this.configFileName = params[0];
+			this.key = params[1];
+		} else {
+			this.configFileName = null;
+			this.key = null;
+		}
+	}
+
+	/**
+	 * refresh cached value from a snapshot
+	 *
+	 * @param snapshot
+	 */
+	final void refresh(ConfigSnapshot snapshot) {
+		String value = null;
+		if (StringUtil.isNotEmpty(configFileName) && StringUtil.isNotEmpty(key)) {
+			value = snapshot.getConfig(configFileName, key);
+		}
+		update(StringUtil.isNotEmpty(value) ? value : null);
+	}
+
+	/**
+	 * parse and cache the new value
+	 *
+	 * @param value NULL if config item is missing
+	 */
+	abstract void update(String value);
+
+	public String getConfigName() {
+		return configName;
+	}
+
+	public String getConfigFileName() {
+		return configFileName;
+	}
+
+	public String getKey() {
+		return key;
+	}
+}
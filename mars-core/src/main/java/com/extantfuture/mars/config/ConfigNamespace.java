@@ -0,0 +1,670 @@
+package com.extantfuture.mars.config;
+
+import com.extantfuture.mars.config.gray.GrayConfigManager;
+import com.extantfuture.mars.metrics.HitCounter;
+import com.extantfuture.mars.metrics.MarsMetrics;
+import com.extantfuture.mars.util.CollectionUtil;
+import com.extantfuture.mars.util.StringUtil;
+import org.apache.log4j.Logger;
+
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * isolated config items of one module, config files of the same name in different namespaces never collide
+ * 配置命名空间：每个模块的配置相互隔离，不同命名空间中的同名配置文件互不影响
+ * <p>
+ * the static API of {@link MarsConfigManager} reads and reloads the default namespace,
+ * other namespaces are created on first use and live as long as the JVM:
+ * <pre>
+ * ConfigNamespace shared = ConfigNamespace.get("shared_module");
+ * String value = shared.getConfig("user_conf.system_user");
+ * </pre>
+ * </p>
+ *
+ * @author Rambo, <rambo@extantfuture.com>
+ * @date 2017/7/13 上午10:30
+ */
+public final class ConfigNamespace {
+
+	private static final Logger LOG = Logger.getLogger(ConfigNamespace.class.getSimpleName());
+	/**
+	 * name of the namespace behind the static API of MarsConfigManager
+	 */
+	public static final String DEFAULT_NAME = "default";
+	// count of resolved config names kept, the rest are split on each call
+	private static final int MAX_CONFIG_NAMES = 16384;
+
+	// name -> namespace
+	private static final Map<String, ConfigNamespace> namespaceMap = new ConcurrentHashMap<String, ConfigNamespace>();
+	// parser of config contents, not thread safe, guarded by itself and shared by all namespaces
+	private static final ConfigContentParser PARSER = new ConfigContentParser();
+	// configName -> [configFileName, key], shared by all namespaces
+	private static final Map<String, String[]> configNameMap = new ConcurrentHashMap<String, String[]>();
+	private static final ConfigNamespace DEFAULT = get(DEFAULT_NAME);
+
+	private final String name;
+	private final boolean defaultNamespace;
+	// lock for writers, readers never lock and read the published snapshot directly
+	private final Object publishLock = new Object();
+	// local memory cache to hold all config items of the namespace, replaced as a whole on each reload
+	private volatile ConfigSnapshot snapshot = ConfigSnapshot.EMPTY;
+	// pre-resolved handles refreshed on each reload
+	private final List<ConfigHandle> handleList = new CopyOnWriteArrayList<>();
+
+	private ConfigNamespace(String name) {
+		this.name = name;
+		this.defaultNamespace = DEFAULT_NAME.equals(name);
+	}
+
+	/**
+	 * get namespace by name, created if absent
+	 * 获取命名空间，不存在时创建
+	 *
+	 * @param name module name, NULL or empty for the default namespace
+	 * @return
+	 */
+	public static ConfigNamespace get(String name) {
+		String namespaceName = StringUtil.isEmpty(name) ? DEFAULT_NAME : name;
+		ConfigNamespace namespace = namespaceMap.get(namespaceName);
+		if (null == namespace) {
+			namespace = namespaceMap.computeIfAbsent(namespaceName, ConfigNamespace::new);
+		}
+		return namespace;
+	}
+
+	/**
+	 * the namespace behind the static API of MarsConfigManager
+	 *
+	 * @return
+	 */
+	public static ConfigNamespace getDefault() {
+		return DEFAULT;
+	}
+
+	/**
+	 * names of all created namespaces
+	 *
+	 * @return
+	 */
+	public static Set<String> getNames() {
+		return Collections.unmodifiableSet(namespaceMap.keySet());
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public boolean isDefault() {
+		return defaultNamespace;
+	}
+
+	/**
+	 * get config item's string value by key in config file
+	 * 查询配置(本地缓存)
+	 *
+	 * @param configFileName
+	 * @param key            配置项名
+	 * @return
+	 */
+	public String getConfig(String configFileName, String key) {
+		String value = null;
+		if (StringUtil.isNotEmpty(configFileName) && StringUtil.isNotEmpty(key)) {
+			value = snapshot.getConfig(configFileName, key);
+			counter(configFileName).record(null != value);
+		}
+		return value;
+	}
+
+	/**
+	 * get config item's string value with default NULL by key in config file
+	 * 查询配置(本地缓存)
+	 *
+	 * @param configName 格式： configFileName.key
+	 * @return
+	 */
+	public String getConfig(String configName) {
+		String[] names = resolveConfigName(configName);
+		return null == names ? null : getConfig(names[0], names[1]);
+	}
+
+	/**
+	 * get config item's string value with default by key in config file
+	 * 查询配置(本地缓存)
+	 *
+	 * @param configFileName
+	 * @param key            配置项名
+	 * @param defaultConfig  默认配置
+	 * @return
+	 */
+	public String getConfigWithDefault(String configFileName, String key, String defaultConfig) {
+		String value = getConfig(configFileName, key);
+		if (!StringUtil.isNotEmpty(value)) {
+			value = defaultConfig;
+		}
+		return value;
+	}
+
+	/**
+	 * get config item's string value with default by key in config file
+	 * 查询配置(本地缓存)
+	 *
+	 * @param configName    格式： configFileName.key
+	 * @param defaultConfig 默认配置
+	 * @return
+	 */
+	public String getConfigWithDefault(String configName, String defaultConfig) {
+		String value = getConfig(configName);
+		if (!StringUtil.isNotEmpty(value)) {
+			value = defaultConfig;
+		}
+		return value;
+	}
+
+	/**
+	 * get config item's boolean value with default by key in config file
+	 *
+	 * @param configName
+	 * @param defaultConfig
+	 * @return
+	 */
+	public boolean getBooleanConfig(String configName, boolean defaultConfig) {
+		String value = getConfig(configName);
+		if (StringUtil.isNotEmpty(value)) {
+			return StringUtil.convertBoolean(value, defaultConfig);
+		}
+		return defaultConfig;
+	}
+
+	/**
+	 * get config item's double value with default by key in config file
+	 *
+	 * @param configName
+	 * @param defaultConfig
+	 * @return
+	 */
+	public double getDoubleConfig(String configName, double defaultConfig) {
+		ConfigValueTable.Value value = getParsedValue(configName, ConfigValueTable.DOUBLE);
+		return null == value ? defaultConfig : value.doubleValue();
+	}
+
+	/**
+	 * get config item's float value with default by key in config file
+	 *
+	 * @param configName
+	 * @param defaultConfig
+	 * @return
+	 */
+	public float getFloatConfig(String configName, float defaultConfig) {
+		ConfigValueTable.Value value = getParsedValue(configName, ConfigValueTable.FLOAT);
+		return null == value ? defaultConfig : value.floatValue();
+	}
+
+	/**
+	 * get config item's int value with default by key in config file
+	 *
+	 * @param configName
+	 * @param defaultConfig
+	 * @return
+	 */
+	public int getIntConfig(String configName, int defaultConfig) {
+		ConfigValueTable.Value value = getParsedValue(configName, ConfigValueTable.INT);
+		return null == value ? defaultConfig : value.intValue();
+	}
+
+	/**
+	 * get config item's long value with default by key in config file
+	 *
+	 * @param configName
+	 * @param defaultConfig
+	 * @return
+	 */
+	public long getLongConfig(String configName, long defaultConfig) {
+		ConfigValueTable.Value value = getParsedValue(configName, ConfigValueTable.LONG);
+		return null == value ? defaultConfig : value.longValue();
+	}
+
+	/**
+	 * get config item's value as a list, like "host1:8080,host2:8080"
+	 *
+	 * @param configName
+	 * @return immutable list, empty if missing or malformed
+	 * @see ConfigValueDecoders#LIST
+	 */
+	public List<String> getList(String configName) {
+		return getValue(configName, ConfigValueDecoders.LIST, Collections.<String>emptyList());
+	}
+
+	/**
+	 * get config item's value as a set of long, like "10001,10002"
+	 *
+	 * @param configName
+	 * @return immutable set, empty if missing or malformed
+	 * @see ConfigValueDecoders#LONG_SET
+	 */
+	public Set<Long> getLongSet(String configName) {
+		return getValue(configName, ConfigValueDecoders.LONG_SET, Collections.<Long>emptySet());
+	}
+
+	/**
+	 * get config item's value as a map, like "a:10,b:90"
+	 *
+	 * @param configName
+	 * @return immutable map, empty if missing or malformed
+	 * @see ConfigValueDecoders#MAP
+	 */
+	public Map<String, String> getMap(String configName) {
+		return getValue(configName, ConfigValueDecoders.MAP, Collections.<String, String>emptyMap());
+	}
+
+	/**
+	 * get config item's JSON value, requires jackson-databind on the classpath
+	 * the same object is returned to all readers until the config file is reloaded, it must not be modified
+	 *
+	 * @param configName
+	 * @param type
+	 * @param <T>
+	 * @return NULL if missing or malformed
+	 * @see ConfigValueDecoders#json(Class)
+	 */
+	public <T> T getJson(String configName, Class<T> type) {
+		return getValue(configName, ConfigValueDecoders.json(type), null);
+	}
+
+	/**
+	 * get config item's value decoded by decoder, decoded once on first read and memoized until the config file is
+	 * reloaded, so repeated reads cost only a lookup
+	 * 获取结构化配置值，配置文件每个版本只解码一次
+	 *
+	 * @param configName   格式： configFileName.key
+	 * @param decoder      kept as a constant, values are memoized per decoder instance
+	 * @param defaultValue returned if missing or malformed
+	 * @param <T>
+	 * @return
+	 */
+	@SuppressWarnings("unchecked")
+	public <T> T getValue(String configName, ConfigValueDecoder<T> decoder, T defaultValue) {
+		String[] names = resolveConfigName(configName);
+		if (null == names) {
+			return defaultValue;
+		}
+		ConfigSnapshot current = snapshot;
+		ConfigValueTable table = current.getValueTable(names[0]);
+		Object decoded = null == table ? null : table.getDecoded(decoder, names[1]);
+		if (null == decoded) {
+			String config = current.getConfig(names[0], names[1]);
+			if (null == table || StringUtil.isEmpty(config)) {
+				counter(names[0]).record(null != config);
+				return defaultValue;
+			}
+			decoded = decode(table, decoder, configName, names[1], config);
+		}
+		counter(names[0]).hit();
+		return ConfigValueTable.MALFORMED == decoded ? defaultValue : (T) decoded;
+	}
+
+	/**
+	 * resolve configName into config file name and key, cached so that repeated lookups do not allocate
+	 *
+	 * @param configName 格式： configFileName.key
+	 * @return [configFileName, key], NULL if not in the format
+	 */
+	private static String[] resolveConfigName(String configName) {
+		if (null == configName) {
+			return null;
+		}
+		String[] names = configNameMap.get(configName);
+		if (null == names && StringUtil.isNotEmpty(configName)) {
+			String[] params = StringUtil.splitFirst(configName, ".");
+			if (null != params && 2 == params.length && StringUtil.isNotEmpty(params[0]) && StringUtil.isNotEmpty(params[1])) {
+				names = params;
+				if (configNameMap.size() < MAX_CONFIG_NAMES) {
+					configNameMap.put(configName, names);
+				}
+			}
+		}
+		return names;
+	}
+
+	/**
+	 * read the value parsed when its config file was loaded, a malformed value is logged once and treated as absent
+	 *
+	 * @param configName 格式： configFileName.key
+	 * @param type       one of ConfigValueTable.INT, LONG, DOUBLE and FLOAT
+	 * @return NULL if the config item is missing or not valid for the type
+	 */
+	private ConfigValueTable.Value getParsedValue(String configName, int type) {
+		String[] names = resolveConfigName(configName);
+		if (null == names) {
+			return null;
+		}
+		ConfigSnapshot current = snapshot;
+		ConfigValueTable table = current.getValueTable(names[0]);
+		ConfigValueTable.Value value = null == table ? null : table.get(names[1]);
+		if (null != value && value.isValid(type)) {
+			counter(names[0]).hit();
+			return value;
+		}
+		String config = current.getConfig(names[0], names[1]);
+		counter(names[0]).record(null != config);
+		if (null != table && StringUtil.isNotEmpty(config) && table.markMalformed(names[1])) {
+			LOG.warn(StringUtil.concat("malformed ", ConfigValueTable.typeName(type), " config, default is used, namespace=", name,
+									   ", configName=", configName, ", value=", config));
+		}
+		return null;
+	}
+
+	/**
+	 * decode and memoize a config item's value, a malformed value is logged once by the reader memoizing it
+	 *
+	 * @param table      value table of the config file
+	 * @param decoder
+	 * @param configName 格式： configFileName.key
+	 * @param key
+	 * @param config     non empty value
+	 * @return decoded value or MALFORMED
+	 */
+	private Object decode(ConfigValueTable table, ConfigValueDecoder<?> decoder, String configName, String key, String config) {
+		Object decoded;
+		Exception exception = null;
+		try {
+			decoded = decoder.decode(config);
+			if (null == decoded) {
+				decoded = ConfigValueTable.MALFORMED;
+			}
+		} catch (Exception e) {
+			decoded = ConfigValueTable.MALFORMED;
+			exception = e;
+		}
+		Object previous = table.putDecoded(decoder, key, decoded);
+		if (null != previous) {
+			return previous;
+		}
+		if (ConfigValueTable.MALFORMED == decoded) {
+			LOG.warn(StringUtil.concat("malformed config, default is used, namespace=", name, ", configName=", configName,
+									   ", value=", config,
+									   ", error=", null == exception ? "NULL decoded" : exception.toString()));
+		}
+		return decoded;
+	}
+
+	/**
+	 * parse config file content into config map
+	 * 解析配置内容，每个[configFileName]段整体替换对应配置文件，已删除的配置项会被移除
+	 *
+	 * @param configContent
+	 * @return changes applied, empty if nothing changed
+	 */
+	public ConfigChangeSet reloadConfigContent(String configContent) {
+		return reloadConfigContents(Collections.singletonList(configContent));
+	}
+
+	/**
+	 * parse contents of several config files and publish them as one snapshot
+	 * 解析多个配置内容并作为一个快照整体发布
+	 *
+	 * @param configContents
+	 * @return changes applied, empty if nothing changed
+	 */
+	public ConfigChangeSet reloadConfigContents(Collection<String> configContents) {
+		Map<String, Map<String, String>> updates = new HashMap<>();
+		if (CollectionUtil.isNotEmpty(configContents)) {
+			synchronized (PARSER) {
+				for (String configContent : configContents) {
+					if (StringUtil.isNotEmpty(configContent)) {
+						PARSER.parse(StringUtil.getUTF8Bytes(configContent), null, updates);
+					}
+				}
+			}
+		}
+		// publish all sections of the contents at once
+		return publish(updates, Collections.<String>emptySet());
+	}
+
+	/**
+	 * parse config content in UTF-8 bytes directly, like the mapped local snapshot file
+	 * 直接解析UTF-8字节形式的配置内容
+	 *
+	 * @param configContent from position to limit, position is not changed
+	 * @return changes applied, empty if nothing changed
+	 */
+	public ConfigChangeSet reloadConfigContent(ByteBuffer configContent) {
+		Map<String, Map<String, String>> updates = new HashMap<>();
+		synchronized (PARSER) {
+			PARSER.parse(configContent, null, updates);
+		}
+		return publish(updates, Collections.<String>emptySet());
+	}
+
+	/**
+	 * parse config content in UTF-8 bytes and load only config files not loaded yet, like the local snapshot restored
+	 * before the source is read, so that it never overwrites config files loaded fresher by others
+	 * 解析UTF-8字节形式的配置内容，仅加载尚未加载的配置文件
+	 *
+	 * @param configContent from position to limit, position is not changed
+	 * @return changes applied, empty if nothing changed
+	 */
+	public ConfigChangeSet loadAbsentConfigContent(ByteBuffer configContent) {
+		Map<String, Map<String, String>> updates = new HashMap<>();
+		synchronized (PARSER) {
+			PARSER.parse(configContent, null, updates);
+		}
+		updates.keySet().removeAll(snapshot.getConfigFileNames());
+		return publish(updates, Collections.<String>emptySet());
+	}
+
+	/**
+	 * reload changed config files and remove deleted ones as one snapshot
+	 * 批量更新和删除配置文件，作为一个快照整体发布
+	 *
+	 * @param fileContents     configFileName -> content
+	 * @param removedFileNames deleted config files
+	 * @return changes applied, empty if nothing changed
+	 * @see MarsConfigManager#reloadConfigFiles(Map, Collection)
+	 */
+	public ConfigChangeSet reloadConfigFiles(Map<String, String> fileContents, Collection<String> removedFileNames) {
+		Map<String, byte[]> contentMap = new HashMap<>();
+		if (CollectionUtil.isNotEmpty(fileContents)) {
+			for (Map.Entry<String, String> entry : fileContents.entrySet()) {
+				contentMap.put(entry.getKey(), StringUtil.getUTF8Bytes(null == entry.getValue() ? "" : entry.getValue()));
+			}
+		}
+		return reloadConfigBytes(contentMap, removedFileNames);
+	}
+
+	/**
+	 * reload changed config files in UTF-8 bytes and remove deleted ones as one snapshot
+	 * 批量更新和删除配置文件，直接解析字节内容
+	 *
+	 * @param fileContents     configFileName -> content in UTF-8
+	 * @param removedFileNames deleted config files
+	 * @return changes applied, empty if nothing changed
+	 */
+	public ConfigChangeSet reloadConfigBytes(Map<String, byte[]> fileContents, Collection<String> removedFileNames) {
+		Map<String, Map<String, String>> updates = new HashMap<>();
+		if (CollectionUtil.isNotEmpty(fileContents)) {
+			synchronized (PARSER) {
+				for (Map.Entry<String, byte[]> entry : fileContents.entrySet()) {
+					PARSER.parse(null == entry.getValue() ? new byte[0] : entry.getValue(), entry.getKey(), updates);
+				}
+			}
+		}
+		Collection<String> removed = null == removedFileNames ? Collections.<String>emptySet() : removedFileNames;
+		return publish(updates, removed);
+	}
+
+	/**
+	 * remove all config items of a config file
+	 * 移除整个配置文件
+	 *
+	 * @param configFileName
+	 * @return changes applied, empty if the config file is not loaded
+	 */
+	public ConfigChangeSet removeConfigFile(String configFileName) {
+		if (StringUtil.isNotEmpty(configFileName)) {
+			return publish(Collections.<String, Map<String, String>>emptyMap(), Collections.singleton(configFileName));
+		}
+		return ConfigChangeSet.empty(snapshot.getVersion());
+	}
+
+	/**
+	 * diff updated config files against current snapshot, then publish the new snapshot atomically
+	 * 计算变更并原子发布新快照，无变更时不发布
+	 *
+	 * @param sections         configFileName -> (key -> value), replaces the whole config file
+	 * @param removedFileNames config files to remove
+	 * @return
+	 */
+	ConfigChangeSet publish(Map<String, Map<String, String>> sections, Collection<String> removedFileNames) {
+		ConfigChangeSet changeSet;
+		synchronized (publishLock) {
+			ConfigSnapshot current = snapshot;
+			List<ConfigChange> changes = current.diff(sections, removedFileNames);
+			if (changes.isEmpty()) {
+				return ConfigChangeSet.empty(current.getVersion());
+			}
+			ConfigSnapshot published = current.apply(sections, removedFileNames, changes);
+			snapshot = published;
+			changeSet = new ConfigChangeSet(published.getVersion(), changes);
+			for (ConfigHandle handle : handleList) {
+				if (changeSet.getConfigFileNames().contains(handle.getConfigFileName())) {
+					handle.refresh(published);
+				}
+			}
+		}
+		if (defaultNamespace) {
+			// every publish path recompiles cached gray rules of changed keys, including rules cached while missing
+			GrayConfigManager.refresh(changeSet);
+		}
+		if (LOG.isDebugEnabled()) {
+			LOG.debug("publish config snapshot, namespace=" + name + ", version=" + changeSet.getVersion() + ", changes="
+							  + changeSet.getChanges());
+		}
+		return changeSet;
+	}
+
+	/**
+	 * get current config snapshot of the namespace, which never changes after published
+	 * 获取当前配置快照
+	 *
+	 * @return
+	 */
+	public ConfigSnapshot getSnapshot() {
+		return snapshot;
+	}
+
+	/**
+	 * get version of current config snapshot, increased on each reload
+	 * 获取当前配置版本号
+	 *
+	 * @return
+	 */
+	public long getConfigVersion() {
+		return snapshot.getVersion();
+	}
+
+	/**
+	 * create a pre-resolved int config handle
+	 * 创建预解析的int型配置句柄
+	 *
+	 * @param configName    格式： configFileName.key
+	 * @param defaultConfig 默认配置
+	 * @return
+	 */
+	public IntConfig intHandle(String configName, int defaultConfig) {
+		return register(new IntConfig(configName, defaultConfig));
+	}
+
+	/**
+	 * create a pre-resolved long config handle
+	 * 创建预解析的long型配置句柄
+	 *
+	 * @param configName    格式： configFileName.key
+	 * @param defaultConfig 默认配置
+	 * @return
+	 */
+	public LongConfig longHandle(String configName, long defaultConfig) {
+		return register(new LongConfig(configName, defaultConfig));
+	}
+
+	/**
+	 * create a pre-resolved boolean config handle
+	 * 创建预解析的boolean型配置句柄
+	 *
+	 * @param configName    格式： configFileName.key
+	 * @param defaultConfig 默认配置
+	 * @return
+	 */
+	public BooleanConfig booleanHandle(String configName, boolean defaultConfig) {
+		return register(new BooleanConfig(configName, defaultConfig));
+	}
+
+	/**
+	 * create a pre-resolved double config handle
+	 * 创建预解析的double型配置句柄
+	 *
+	 * @param configName    格式： configFileName.key
+	 * @param defaultConfig 默认配置
+	 * @return
+	 */
+	public DoubleConfig doubleHandle(String configName, double defaultConfig) {
+		return register(new DoubleConfig(configName, defaultConfig));
+	}
+
+	/**
+	 * create a pre-resolved float config handle
+	 * 创建预解析的float型配置句柄
+	 *
+	 * @param configName    格式： configFileName.key
+	 * @param defaultConfig 默认配置
+	 * @return
+	 */
+	public FloatConfig floatHandle(String configName, float defaultConfig) {
+		return register(new FloatConfig(configName, defaultConfig));
+	}
+
+	/**
+	 * create a pre-resolved string config handle
+	 * 创建预解析的字符串配置句柄
+	 *
+	 * @param configName    格式： configFileName.key
+	 * @param defaultConfig 默认配置
+	 * @return
+	 */
+	public StringConfig stringHandle(String configName, String defaultConfig) {
+		return register(new StringConfig(configName, defaultConfig));
+	}
+
+	/**
+	 * load handle's value from current snapshot and keep it refreshed on reload
+	 *
+	 * @param handle
+	 * @param <T>
+	 * @return
+	 */
+	private <T extends ConfigHandle> T register(T handle) {
+		// under the publish lock so that no reload is missed between the first refresh and registration
+		synchronized (publishLock) {
+			handle.refresh(snapshot);
+			handleList.add(handle);
+		}
+		return handle;
+	}
+
+	private HitCounter counter(String configFileName) {
+		return defaultNamespace ? MarsMetrics.configCounter(configFileName) : MarsMetrics.configCounter(name,
+																										configFileName);
+	}
+
+	@Override
+	public String toString() {
+		return "ConfigNamespace{name='" + name + "', version=" + snapshot.getVersion() + "}";
+	}
+}
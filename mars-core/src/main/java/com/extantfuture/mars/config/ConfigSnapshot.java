@@ -0,0 +1,179 @@
+package com.extantfuture.mars.config;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * immutable view of all config items at one version
+ * 某一版本下全部配置项的不可变快照
+ * <p>
+ * a snapshot is never modified after it is published, readers can hold it without any lock,
+ * a reload builds a new snapshot and publishes it atomically.
+ * numeric values of each config file are parsed once into a {@link ConfigValueTable} when the config file is loaded
+ * </p>
+ *
+ * @author Rambo, <rambo@extantfuture.com>
+ * @date 2017/6/20 下午3:12
+ */
+public final class ConfigSnapshot {
+
+	/**
+	 * snapshot before any config is loaded
+	 */
+	public static final ConfigSnapshot EMPTY = new ConfigSnapshot(0L, Collections.<String, Map<String, String>>emptyMap(),
+																  Collections.<String, ConfigValueTable>emptyMap());
+
+	// monotonically increasing version, increased by one for each publish
+	private final long version;
+	// configFileName -> (key -> value), both levels are read only
+	private final Map<String, Map<String, String>> configMap;
+	// configFileName -> parsed numeric values, shared with the previous snapshot for unchanged config files
+	private final Map<String, ConfigValueTable> valueTableMap;
+
+	private ConfigSnapshot(long version, Map<String, Map<String, String>> configMap,
+			Map<String, ConfigValueTable> valueTableMap) {
+		this.version = version;
+		this.configMap = configMap;
+		this.valueTableMap = valueTableMap;
+	}
+
+	/**
+	 * diff sections to be replaced and config files to be removed against this snapshot
+	 * 计算新内容相对当前快照的变更(新增、修改、删除)
+	 *
+	 * @param sections        configFileName -> (key -> value), replaces the whole config file
+	 * @param removedFileNames config files to remove
+	 * @return
+	 */
+	List<ConfigChange> diff(Map<String, Map<String, String>> sections, Collection<String> removedFileNames) {
+		List<ConfigChange> changes = new ArrayList<>();
+		for (Map.Entry<String, Map<String, String>> entry : sections.entrySet()) {
+			String configFileName = entry.getKey();
+			Map<String, String> newSection = entry.getValue();
+			Map<String, String> oldSection = configMap.get(configFileName);
+			for (Map.Entry<String, String> item : newSection.entrySet()) {
+				String oldValue = null == oldSection ? null : oldSection.get(item.getKey());
+				if (!item.getValue().equals(oldValue)) {
+					changes.add(new ConfigChange(configFileName, item.getKey(), oldValue, item.getValue()));
+				}
+			}
+			if (null != oldSection) {
+				for (Map.Entry<String, String> item : oldSection.entrySet()) {
+					if (!newSection.containsKey(item.getKey())) {
+						changes.add(new ConfigChange(configFileName, item.getKey(), item.getValue(), null));
+					}
+				}
+			}
+		}
+		for (String configFileName : removedFileNames) {
+			Map<String, String> oldSection = configMap.get(configFileName);
+			if (null != oldSection && !sections.containsKey(configFileName)) {
+				for (Map.Entry<String, String> item : oldSection.entrySet()) {
+					changes.add(new ConfigChange(configFileName, item.getKey(), item.getValue(), null));
+				}
+			}
+		}
+		return changes;
+	}
+
+	/**
+	 * build the next snapshot by replacing changed sections and removing config files
+	 * 仅替换有变更的配置文件生成下一版本快照，未变更的配置文件沿用已解析的值
+	 * <p>
+	 * a section without changes keeps its map and value table, so values decoded from it stay memoized
+	 * </p>
+	 *
+	 * @param sections         configFileName -> (key -> value), replaces the whole config file
+	 * @param removedFileNames config files to remove
+	 * @param changes          result of {@link #diff(Map, Collection)} with the same sections and removedFileNames
+	 * @return
+	 */
+	ConfigSnapshot apply(Map<String, Map<String, String>> sections, Collection<String> removedFileNames,
+			List<ConfigChange> changes) {
+		Set<String> changedFileNames = new HashSet<>();
+		for (ConfigChange change : changes) {
+			changedFileNames.add(change.getConfigFileName());
+		}
+		Map<String, Map<String, String>> newConfigMap = new HashMap<>(configMap);
+		Map<String, ConfigValueTable> newValueTableMap = new HashMap<>(valueTableMap);
+		for (String configFileName : removedFileNames) {
+			// a config file both removed and updated is replaced by its section
+			if (!sections.containsKey(configFileName)) {
+				newConfigMap.remove(configFileName);
+				newValueTableMap.remove(configFileName);
+			}
+		}
+		for (Map.Entry<String, Map<String, String>> entry : sections.entrySet()) {
+			String configFileName = entry.getKey();
+			// an empty config file loaded for the first time has no change but is still loaded
+			if (changedFileNames.contains(configFileName) || !configMap.containsKey(configFileName)) {
+				newConfigMap.put(configFileName, Collections.unmodifiableMap(new HashMap<>(entry.getValue())));
+				newValueTableMap.put(configFileName, ConfigValueTable.parse(entry.getValue()));
+			}
+		}
+		return new ConfigSnapshot(version + 1, Collections.unmodifiableMap(newConfigMap), newValueTableMap);
+	}
+
+	/**
+	 * get config item's value in this snapshot
+	 *
+	 * @param configFileName
+	 * @param key
+	 * @return
+	 */
+	public String getConfig(String configFileName, String key) {
+		Map<String, String> section = configMap.get(configFileName);
+		if (null != section) {
+			return section.get(key);
+		}
+		return null;
+	}
+
+	/**
+	 * parsed numeric values of a config file in this snapshot
+	 *
+	 * @param configFileName
+	 * @return NULL if the config file is not loaded
+	 */
+	ConfigValueTable getValueTable(String configFileName) {
+		return valueTableMap.get(configFileName);
+	}
+
+	/**
+	 * get all config items of a config file in this snapshot
+	 *
+	 * @param configFileName
+	 * @return read only map, NULL if the config file is not loaded
+	 */
+	public Map<String, String> getConfigMap(String configFileName) {
+		return configMap.get(configFileName);
+	}
+
+	/**
+	 * names of all loaded config files
+	 *
+	 * @return
+	 */
+	public Set<String> getConfigFileNames() {
+		return configMap.keySet();
+	}
+
+	public boolean isEmpty() {
+		return configMap.isEmpty();
+	}
+
+	public long getVersion() {
+		return version;
+	}
+
+	@Override
+	public String toString() {
+		return "ConfigSnapshot [version=" + version + ", configFileNames=" + configMap.keySet() + "]";
+	}
+}
@@ -0,0 +1,225 @@
+package com.extantfuture.mars.config;
+
+import com.extantfuture.mars.util.StringUtil;
+import org.apache.log4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * local file to persist the last good config snapshot
+ * 本地配置快照文件，保存最近一次成功加载的配置，启动时无需等待配置中心即可使用
+ * <p>
+ * file format:
+ * <pre>
+ * #mars-snapshot version=12 length=1024 crc32=1a2b3c4d
+ * [configFileName]
+ * key=value
+ * </pre>
+ * the file is written to a temp file and renamed atomically, a file with wrong length or checksum is ignored
+ * </p>
+ *
+ * @author Rambo, <rambo@extantfuture.com>
+ * @date 2017/6/28 下午5:10
+ */
+public class ConfigSnapshotStore {
+
+	private static final Logger LOG = Logger.getLogger(ConfigSnapshotStore.class.getSimpleName());
+	// jvm property to specify directory of snapshot files
+	private static final String SNAPSHOT_DIR_PROPERTY = "ef_conf_snapshot_dir";
+	private static final String HEADER_PREFIX = "#mars-snapshot ";
+	private static final String SUFFIX = ".snapshot";
+
+	private final File file;
+
+	public ConfigSnapshotStore(File file) {
+		this.file = file;
+	}
+
+	/**
+	 * snapshot file of a module, in directory specified by jvm property ef_conf_snapshot_dir, or ~/.mars by default
+	 * 获取模块的本地快照文件
+	 *
+	 * @param moduleName
+	 * @return
+	 */
+	public static ConfigSnapshotStore forModule(String moduleName) {
+		String dir = System.getProperty(SNAPSHOT_DIR_PROPERTY);
+		if (StringUtil.isEmpty(dir)) {
+			dir = System.getProperty("user.home") + File.separator + ".mars";
+		}
+		return new ConfigSnapshotStore(new File(dir, moduleName + SUFFIX));
+	}
+
+	/**
+	 * write snapshot to local file atomically
+	 * 写入本地快照文件
+	 *
+	 * @param snapshot
+	 * @throws IOException
+	 */
+	public void save(ConfigSnapshot snapshot) throws IOException {
+		save(snapshot, snapshot.getConfigFileNames());
+	}
+
+	/**
+	 * write given config files of snapshot to local file atomically, like the ones owned by a config source
+	 * 写入快照中指定的配置文件
+	 *
+	 * @param snapshot
+	 * @param configFileNames config files to write, the ones not loaded in snapshot are skipped
+	 * @throws IOException
+	 */
+	public void save(ConfigSnapshot snapshot, Collection<String> configFileNames) throws IOException {
+		byte[] body = StringUtil.getUTF8Bytes(toContent(snapshot, configFileNames));
+		CRC32 crc32 = new CRC32();
+		crc32.update(body, 0, body.length);
+		// StringUtil.concat skips blank strings, so the line break is appended separately
+		byte[] header = StringUtil.getUTF8Bytes(StringUtil.concat(HEADER_PREFIX, "version=", snapshot.getVersion(), " length=",
+																  body.length, " crc32=", Long.toHexString(crc32.getValue())) + "\n");
+
+		File dir = file.getAbsoluteFile().getParentFile();
+		if (!dir.isDirectory() && !dir.mkdirs()) {
+			throw new IOException("can not create snapshot directory " + dir);
+		}
+		File tmpFile = new File(dir, file.getName() + ".tmp");
+		try (RandomAccessFile raf = new RandomAccessFile(tmpFile, "rw"); FileChannel channel = raf.getChannel()) {
+			channel.truncate(0L);
+			ByteBuffer buffer = ByteBuffer.allocate(header.length + body.length);
+			buffer.put(header).put(body);
+			// cast to Buffer, ByteBuffer.flip() does not exist on java 8
+			((Buffer) buffer).flip();
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+			channel.force(true);
+		}
+		Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		if (LOG.isDebugEnabled()) {
+			LOG.debug("save config snapshot, file=" + file + ", version=" + snapshot.getVersion() + ", length=" + body.length);
+		}
+	}
+
+	/**
+	 * read local snapshot file
+	 * 读取本地快照文件内容
+	 *
+	 * @return config content, NULL if file not exists or broken
+	 */
+	public String load() {
+		ByteBuffer body = loadBuffer();
+		if (null == body) {
+			return null;
+		}
+		byte[] bodyBytes = new byte[body.remaining()];
+		body.get(bodyBytes);
+		return StringUtil.getUTF8String(bodyBytes);
+	}
+
+	/**
+	 * read local snapshot file through memory mapping, the content is not copied to heap
+	 * 通过内存映射读取本地快照文件内容
+	 *
+	 * @return read only buffer of config content in UTF-8, NULL if file not exists or broken
+	 */
+	public ByteBuffer loadBuffer() {
+		if (!file.isFile()) {
+			return null;
+		}
+		try (RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel channel = raf.getChannel()) {
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0L, channel.size());
+			// header line
+			int headerEnd = -1;
+			for (int i = 0; i < buffer.limit(); i++) {
+				if ('\n' == buffer.get(i)) {
+					headerEnd = i;
+					break;
+				}
+			}
+			if (headerEnd < 0) {
+				LOG.warn("broken config snapshot without header, file=" + file);
+				return null;
+			}
+			byte[] headerBytes = new byte[headerEnd];
+			buffer.get(headerBytes);
+			String header = StringUtil.getUTF8String(headerBytes);
+			if (!header.startsWith(HEADER_PREFIX)) {
+				LOG.warn("broken config snapshot header, file=" + file + ", header=" + header);
+				return null;
+			}
+			long length = -1L;
+			String checksum = null;
+			for (String item : StringUtil.split(header.substring(HEADER_PREFIX.length()), " ")) {
+				String[] params = StringUtil.splitFirst(item, "=");
+				if (null != params && 2 == params.length) {
+					if ("length".equals(params[0])) {
+						length = StringUtil.convertLong(params[1], -1L);
+					} else if ("crc32".equals(params[0])) {
+						checksum = params[1];
+					}
+				}
+			}
+			int bodyStart = headerEnd + 1;
+			if (length < 0L || bodyStart + length != buffer.limit()) {
+				LOG.warn("broken config snapshot length, file=" + file + ", header=" + header);
+				return null;
+			}
+			((Buffer) buffer).position(bodyStart);
+			ByteBuffer body = buffer.slice();
+			CRC32 crc32 = new CRC32();
+			crc32.update(body.duplicate());
+			if (!Long.toHexString(crc32.getValue()).equals(checksum)) {
+				LOG.warn("broken config snapshot checksum, file=" + file + ", header=" + header);
+				return null;
+			}
+			LOG.info("load config snapshot, file=" + file + ", header=" + header);
+			return body;
+		} catch (Exception e) {
+			LOG.error("load config snapshot exception, file=" + file, e);
+		}
+		return null;
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	/**
+	 * serialize config files of snapshot in the same format as config content
+	 *
+	 * @param snapshot
+	 * @param configFileNames
+	 * @return
+	 */
+	private static String toContent(ConfigSnapshot snapshot, Collection<String> configFileNames) {
+		StringBuilder sb = new StringBuilder();
+		List<String> sortedFileNames = new ArrayList<>(configFileNames);
+		Collections.sort(sortedFileNames);
+		for (String configFileName : sortedFileNames) {
+			Map<String, String> configMap = snapshot.getConfigMap(configFileName);
+			if (null == configMap) {
+				continue;
+			}
+			sb.append('[').append(configFileName).append("]\n");
+			List<String> keys = new ArrayList<>(configMap.keySet());
+			Collections.sort(keys);
+			for (String key : keys) {
+				sb.append(key).append('=').append(configMap.get(key)).append('\n');
+			}
+		}
+		return sb.toString();
+	}
+}
@@ -0,0 +1,26 @@
+package com.extantfuture.mars.config;
+
+/**
+ * decoder of a structured config value, like a list, a map or JSON
+ * 结构化配置值的解码器，每个配置文件版本内同一配置项只解码一次
+ * <p>
+ * decoded values are memoized per decoder instance until the config file is reloaded,
+ * so a decoder should be kept as a constant, and the decoded value is shared by all readers and must be immutable
+ * </p>
+ *
+ * @author Rambo, <rambo@extantfuture.com>
+ * @date 2017/7/13 下午5:00
+ * @see ConfigValueDecoders
+ */
+@FunctionalInterface
+public interface ConfigValueDecoder<T> {
+
+	/**
+	 * decode a non empty config value
+	 *
+	 * @param value
+	 * @return never NULL
+	 * @throws Exception if the value is malformed, the default is used and it is logged once
+	 */
+	T decode(String value) throws Exception;
+}
@@ -0,0 +1,101 @@
+package com.extantfuture.mars.config;
+
+import com.extantfuture.mars.util.StringUtil;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * built-in decoders of structured config values
+ * 内置的结构化配置值解码器：列表、long集合、映射和JSON
+ * <p>
+ * items are separated by ',' and a map entry by its first ':', blanks around items are trimmed and empty items are
+ * ignored, like "host1:8080, host2:8080" or "a:1,b:2". decoded collections are immutable and keep the order of items
+ * </p>
+ *
+ * @author Rambo, <rambo@extantfuture.com>
+ * @date 2017/7/13 下午5:00
+ */
+public final class ConfigValueDecoders {
+
+	private static final String ITEM_SEPARATOR = ",";
+	private static final String ENTRY_SEPARATOR = ":";
+
+	/**
+	 * "a,b,c" -> [a, b, c]
+	 */
+	public static final ConfigValueDecoder<List<String>> LIST = ConfigValueDecoders::decodeList;
+
+	/**
+	 * "1,2,3" -> {1, 2, 3}, malformed if any item is not a long
+	 */
+	public static final ConfigValueDecoder<Set<Long>> LONG_SET = ConfigValueDecoders::decodeLongSet;
+
+	/**
+	 * "a:1,b:2" -> {a=1, b=2}, malformed if any item has no ':' or an empty key
+	 */
+	public static final ConfigValueDecoder<Map<String, String>> MAP = ConfigValueDecoders::decodeMap;
+
+	// type -> JSON decoder, so that each type is memoized by one decoder instance
+	private static final Map<Class<?>, ConfigValueDecoder<?>> jsonDecoderMap = new ConcurrentHashMap<Class<?>, ConfigValueDecoder<?>>();
+
+	private ConfigValueDecoders() {
+	}
+
+	/**
+	 * decoder of JSON into type, requires jackson-databind on the classpath
+	 * unknown properties are ignored, so fields can be added to the config before the code reading them is deployed
+	 *
+	 * @param type
+	 * @param <T>
+	 * @return the same decoder for the same type
+	 */
+	@SuppressWarnings("unchecked")
+	public static <T> ConfigValueDecoder<T> json(Class<T> type) {
+		Objects.requireNonNull(type, "json type is NULL!");
+		ConfigValueDecoder<?> decoder = jsonDecoderMap.get(type);
+		if (null == decoder) {
+			decoder = jsonDecoderMap.computeIfAbsent(type, JsonValueDecoder::new);
+		}
+		return (ConfigValueDecoder<T>) decoder;
+	}
+
+	private static List<String> decodeList(String value) {
+		List<String> list = new ArrayList<String>();
+		for (String item : StringUtil.split(value, ITEM_SEPARATOR)) {
+			item = item.trim();
+			if (!item.isEmpty()) {
+				list.add(item);
+			}
+		}
+		return Collections.unmodifiableList(list);
+	}
+
+	private static Set<Long> decodeLongSet(String value) {
+		Set<Long> set = new LinkedHashSet<Long>();
+		for (String item : decodeList(value)) {
+			set.add(Long.parseLong(item));
+		}
+		return Collections.unmodifiableSet(set);
+	}
+
+	private static Map<String, String> decodeMap(String value) {
+		Map<String, String> map = new LinkedHashMap<String, String>();
+		for (String item : decodeList(value)) {
+			int index = item.indexOf(ENTRY_SEPARATOR);
+			String key = index < 0 ? "" : item.substring(0, index).trim();
+			if (key.isEmpty()) {
+				throw new IllegalArgumentException("malformed map entry: " + item);
+			}
+			map.put(key, item.substring(index + ENTRY_SEPARATOR.length()).trim());
+		}
+		return Collections.unmodifiableMap(map);
+	}
+}
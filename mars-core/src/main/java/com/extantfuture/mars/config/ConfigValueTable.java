@@ -0,0 +1,250 @@
+package com.extantfuture.mars.config;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * side table of a config file holding numeric values parsed once when the config file is loaded
+ * 配置文件的数值预解析表，配置文件加载时解析一次，类型化查询直接读取解析结果
+ * <p>
+ * only values looking like numbers are parsed and kept, so a string value costs nothing and never throws on reload.
+ * structured values are decoded on first read by a {@link ConfigValueDecoder} and memoized here.
+ * a table is built with its config file and shared by snapshots until the config file changes,
+ * keys of malformed values already reported are kept with it, so each malformed value is logged once
+ * </p>
+ *
+ * @author Rambo, <rambo@extantfuture.com>
+ * @date 2017/7/13 下午3:00
+ */
+final class ConfigValueTable {
+
+	static final int INT = 1;
+	static final int LONG = 2;
+	static final int DOUBLE = 4;
+	static final int FLOAT = 8;
+
+	/**
+	 * decoded value of a malformed config item, memoized so that it is decoded and logged once
+	 */
+	static final Object MALFORMED = new Object();
+
+	// key -> parsed value, values not looking like numbers are absent
+	private final Map<String, Value> valueMap;
+	// keys of malformed values already logged
+	private final Set<String> malformedKeySet = ConcurrentHashMap.newKeySet();
+	// decoder -> (key -> decoded value or MALFORMED), filled on first read
+	private final Map<ConfigValueDecoder<?>, Map<String, Object>> decodedMap = new ConcurrentHashMap<>();
+
+	private ConfigValueTable(Map<String, Value> valueMap) {
+		this.valueMap = valueMap;
+	}
+
+	/**
+	 * parse numeric values of a config file
+	 *
+	 * @param section key -> value
+	 * @return
+	 */
+	static ConfigValueTable parse(Map<String, String> section) {
+		Map<String, Value> valueMap = null;
+		for (Map.Entry<String, String> entry : section.entrySet()) {
+			Value value = Value.parse(entry.getValue());
+			if (null != value) {
+				if (null == valueMap) {
+					valueMap = new HashMap<>();
+				}
+				valueMap.put(entry.getKey(), value);
+			}
+		}
+		// never shared by config files, it holds their decoded values
+		return new ConfigValueTable(null == valueMap ? Collections.<String, Value>emptyMap() : valueMap);
+	}
+
+	/**
+	 * parsed value of a config item
+	 *
+	 * @param key
+	 * @return NULL if the value does not look like a number
+	 */
+	Value get(String key) {
+		return valueMap.get(key);
+	}
+
+	/**
+	 * mark value of the key malformed
+	 *
+	 * @param key
+	 * @return true for the first time, when it should be logged
+	 */
+	boolean markMalformed(String key) {
+		return malformedKeySet.add(key);
+	}
+
+	/**
+	 * decoded value of a config item
+	 *
+	 * @param decoder
+	 * @param key
+	 * @return NULL if not decoded yet, MALFORMED if the value is malformed
+	 */
+	Object getDecoded(ConfigValueDecoder<?> decoder, String key) {
+		Map<String, Object> keyMap = decodedMap.get(decoder);
+		return null == keyMap ? null : keyMap.get(key);
+	}
+
+	/**
+	 * memoize decoded value of a config item, the first one wins if several readers decode it at the same time
+	 *
+	 * @param decoder
+	 * @param key
+	 * @param decoded decoded value or MALFORMED
+	 * @return NULL if memoized by this call, otherwise the value memoized before
+	 */
+	Object putDecoded(ConfigValueDecoder<?> decoder, String key, Object decoded) {
+		Map<String, Object> keyMap = decodedMap.get(decoder);
+		if (null == keyMap) {
+			keyMap = decodedMap.computeIfAbsent(decoder, d -> new ConcurrentHashMap<>());
+		}
+		return keyMap.putIfAbsent(key, decoded);
+	}
+
+	static String typeName(int type) {
+		switch (type) {
+			case INT:
+				return "int";
+			case LONG:
+				return "long";
+			case DOUBLE:
+				return "double";
+			case FLOAT:
+				return "float";
+			default:
+				return String.valueOf(type);
+		}
+	}
+
+	/**
+	 * primitive representations of a value and the types it is valid for,
+	 * the same results as StringUtil.convertX for valid ones
+	 */
+	static final class Value {
+
+		private final int types;
+		private final long longValue;
+		private final double doubleValue;
+		private final float floatValue;
+
+		private Value(int types, long longValue, double doubleValue, float floatValue) {
+			this.types = types;
+			this.longValue = longValue;
+			this.doubleValue = doubleValue;
+			this.floatValue = floatValue;
+		}
+
+		/**
+		 * @param value
+		 * @return NULL if the value is not valid for any numeric type
+		 */
+		static Value parse(String value) {
+			if (!looksNumeric(value)) {
+				return null;
+			}
+			int types = 0;
+			long longValue = 0L;
+			double doubleValue = 0D;
+			float floatValue = 0F;
+			if (looksInteger(value)) {
+				try {
+					longValue = Long.parseLong(value);
+					types |= LONG;
+					if (longValue >= Integer.MIN_VALUE && longValue <= Integer.MAX_VALUE) {
+						types |= INT;
+					}
+				} catch (NumberFormatException e) {
+					// overflow
+				}
+			}
+			try {
+				doubleValue = Double.parseDouble(value);
+				floatValue = Float.parseFloat(value);
+				types |= DOUBLE | FLOAT;
+			} catch (NumberFormatException e) {
+				// looks like a number but is not, like an ip address or a version
+			}
+			return 0 == types ? null : new Value(types, longValue, doubleValue, floatValue);
+		}
+
+		/**
+		 * cheap check before parsing, so that string values never throw
+		 *
+		 * @param value
+		 * @return
+		 */
+		private static boolean looksNumeric(String value) {
+			int length = value.length();
+			int start = 0;
+			int end = length;
+			// Double.parseDouble allows leading and trailing whitespace
+			while (start < end && value.charAt(start) <= ' ') {
+				start++;
+			}
+			while (end > start && value.charAt(end - 1) <= ' ') {
+				end--;
+			}
+			if (start >= end) {
+				return false;
+			}
+			char c = value.charAt(start);
+			if (Character.isDigit(c) || '+' == c || '-' == c || '.' == c) {
+				return true;
+			}
+			return value.startsWith("NaN", start) || value.startsWith("Infinity", start);
+		}
+
+		/**
+		 * optional sign and digits only, as Long.parseLong accepts, which takes non-ASCII digits too
+		 *
+		 * @param value
+		 * @return
+		 */
+		private static boolean looksInteger(String value) {
+			int length = value.length();
+			int start = 0;
+			if (length > 0 && ('+' == value.charAt(0) || '-' == value.charAt(0))) {
+				start = 1;
+			}
+			if (start >= length) {
+				return false;
+			}
+			for (int i = start; i < length; i++) {
+				if (!Character.isDigit(value.charAt(i))) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		boolean isValid(int type) {
+			return 0 != (types & type);
+		}
+
+		int intValue() {
+			return (int) longValue;
+		}
+
+		long longValue() {
+			return longValue;
+		}
+
+		double doubleValue() {
+			return doubleValue;
+		}
+
+		float floatValue() {
+			return floatValue;
+		}
+	}
+}
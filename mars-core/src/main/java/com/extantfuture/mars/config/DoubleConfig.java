@@ -0,0 +1,45 @@
+package com.extantfuture.mars.config;
+
+import com.extantfuture.mars.util.StringUtil;
+
+/**
+ * pre-resolved double config item
+ * 预解析的double型配置项
+ *
+ * @author Rambo, <rambo@extantfuture.com>
+ * @date 2017/6/21 上午11:05
+ */
+public final class DoubleConfig extends ConfigHandle {
+
+	private final double defaultConfig;
+	private volatile double value;
+
+	DoubleConfig(String configName, double defaultConfig) {
+		super(configName);
+		this.defaultConfig = defaultConfig;
+		this.value = defaultConfig;
+	}
+
+	@Override
+	void update(String value) {
+		this.value = null == value ? defaultConfig : StringUtil.convertDouble(value, defaultConfig);
+	}
+
+	/**
+	 * get cached value, default config if missing or malformed
+	 *
+	 * @return
+	 */
+	public double get() {
+		return value;
+	}
+
+	public double getDefaultConfig() {
+		return defaultConfig;
+	}
+
+	@Override
+	public String toString() {
+		return "DoubleConfig [configName=" + getConfigName() + ", value=" + value + ", defaultConfig=" + defaultConfig + "]";
+	}
+}
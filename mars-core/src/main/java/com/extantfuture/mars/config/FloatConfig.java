@@ -0,0 +1,45 @@
+package com.extantfuture.mars.config;
+
+import com.extantfuture.mars.util.StringUtil;
+
+/**
+ * pre-resolved float config item
+ * 预解析的float型配置项
+ *
+ * @author Rambo, <rambo@extantfuture.com>
+ * @date 2017/6/21 上午11:05
+ */
+public final class FloatConfig extends ConfigHandle {
+
+	private final float defaultConfig;
+	private volatile float value;
+
+	FloatConfig(String configName, float defaultConfig) {
+		super(configName);
+		this.defaultConfig = defaultConfig;
+		this.value = defaultConfig;
+	}
+
+	@Override
+	void update(String value) {
+		this.value = null == value ? defaultConfig : StringUtil.convertFloat(value, defaultConfig);
+	}
+
+	/**
+	 * get cached value, default config if missing or malformed
+	 *
+	 * @return
+	 */
+	public float get() {
+		return value;
+	}
+
+	public float getDefaultConfig() {
+		return defaultConfig;
+	}
+
+	@Override
+	public String toString() {
+		return "FloatConfig [configName=" + getConfigName() + ", value=" + value + ", defaultConfig=" + defaultConfig + "]";
+	}
+}
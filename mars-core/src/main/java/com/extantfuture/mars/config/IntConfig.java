@@ -0,0 +1,45 @@
+package com.extantfuture.mars.config;
+
+import com.extantfuture.mars.util.StringUtil;
+
+/**
+ * pre-resolved int config item
+ * 预解析的int型配置项
+ *
+ * @author Rambo, <rambo@extantfuture.com>
+ * @date 2017/6/21 上午11:05
+ */
+public final class IntConfig extends ConfigHandle {
+
+	private final int defaultConfig;
+	private volatile int value;
+
+	IntConfig(String configName, int defaultConfig) {
+		super(configName);
+		this.defaultConfig = defaultConfig;
+		this.value = defaultConfig;
+	}
+
+	@Override
+	void update(String value) {
+		this.value = null == value ? defaultConfig : StringUtil.convertInt(value, defaultConfig);
+	}
+
+	/**
+	 * get cached value, default config if missing or malformed
+	 *
+	 * @return
+	 */
+	public int get() {
+		return value;
+	}
+
+	public int getDefaultConfig() {
+		return defaultConfig;
+	}
+
+	@Override
+	public String toString() {
+		return "IntConfig [configName=" + getConfigName() + ", value=" + value + ", defaultConfig=" + defaultConfig + "]";
+	}
+}
@@ -0,0 +1,37 @@
+package com.extantfuture.mars.config;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * JSON decoder of one type, the only class touching jackson, so it is needed on the classpath only when JSON is read
+ * JSON解码器，仅在读取JSON配置时需要jackson
+ *
+ * @author Rambo, <rambo@extantfuture.com>
+ * @date 2017/7/13 下午5:00
+ */
+final class JsonValueDecoder<T> implements ConfigValueDecoder<T> {
+
+	// thread safe once configured, shared by all types
+	private static final ObjectMapper MAPPER = new ObjectMapper().configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+
+	private final Class<T> type;
+
+	JsonValueDecoder(Class<T> type) {
+		this.type = type;
+	}
+
+	@Override
+	public T decode(String value) throws Exception {
+		T decoded = MAPPER.readValue(value, type);
+		if (null == decoded) {
+			throw new IllegalArgumentException("JSON null for " + type.getName());
+		}
+		return decoded;
+	}
+
+	@Override
+	public String toString() {
+		return "json(" + type.getName() + ")";
+	}
+}
@@ -0,0 +1,45 @@
+package com.extantfuture.mars.config;
+
+import com.extantfuture.mars.util.StringUtil;
+
+/**
+ * pre-resolved long config item
+ * 预解析的long型配置项
+ *
+ * @author Rambo, <rambo@extantfuture.com>
+ * @date 2017/6/21 上午11:05
+ */
+public final class LongConfig extends ConfigHandle {
+
+	private final long defaultConfig;
+	private volatile long value;
+
+	LongConfig(String configName, long defaultConfig) {
+		super(configName);
+		this.defaultConfig = defaultConfig;
+		this.value = defaultConfig;
+	}
+
+	@Override
+	void update(String value) {
+		this.value = null == value ? defaultConfig : StringUtil.convertLong(value, defaultConfig);
+	}
+
+	/**
+	 * get cached value, default config if missing or malformed
+	 *
+	 * @return
+	 */
+	public long get() {
+		return value;
+	}
+
+	public long getDefaultConfig() {
+		return defaultConfig;
+	}
+
+	@Override
+	public String toString() {
+		return "LongConfig [configName=" + getConfigName() + ", value=" + value + ", defaultConfig=" + defaultConfig + "]";
+	}
+}
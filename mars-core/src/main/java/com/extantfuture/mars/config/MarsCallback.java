@@ -11,6 +11,9 @@ public interface MarsCallback {
 
 	/**
 	 * called when config update
+	 * called once for all changes of the config file within a coalescing window, on the listener dispatcher thread
+	 *
+	 * @see com.extantfuture.mars.config.listener.ConfigListenerManager
 	 */
 	void reloadConfig();
 
@@ -8,11 +8,17 @@ import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 /**
- * manager for all config items
+ * manager for all config items of the default namespace
+ * 默认命名空间的配置管理，其他模块的配置见 {@link ConfigNamespace}
  *
  * @author Rambo, <rambo@extantfuture.com>
  * @date 2017/6/16 下午8:35
@@ -21,8 +27,19 @@ public class MarsConfigManager {
 
 	private static final Logger LOG = Logger.getLogger(MarsConfigManager.class.getSimpleName());
 
-	// local memory cache to hold all config items
-	private static final Map<String, Map<String, String>> configLocalMap = new HashMap<String, Map<String, String>>();
+	// namespace behind the static API
+	private static final ConfigNamespace DEFAULT = ConfigNamespace.getDefault();
+
+	/**
+	 * get namespace of a module, the static API of this class reads the default namespace
+	 * 获取模块的配置命名空间
+	 *
+	 * @param name module name, NULL or empty for the default namespace
+	 * @return
+	 */
+	public static ConfigNamespace namespace(String name) {
+		return ConfigNamespace.get(name);
+	}
 
 	/**
 	 * get config item's string value by key in config file
@@ -33,14 +50,7 @@ public class MarsConfigManager {
 	 * @return
 	 */
 	public static String getConfig(String configFileName, String key) {
-		String value = null;
-		if (StringUtil.isNotEmpty(configFileName) && StringUtil.isNotEmpty(key) && CollectionUtil.isNotEmpty(configLocalMap)) {
-			Map<String, String> configMap = configLocalMap.get(configFileName);
-			if (CollectionUtil.isNotEmpty(configMap)) {
-				value = configMap.get(key);
-			}
-		}
-		return value;
+		return DEFAULT.getConfig(configFileName, key);
 	}
 
 	/**
@@ -86,11 +96,7 @@ public class MarsConfigManager {
 	 * @return
 	 */
 	public static boolean getBooleanConfig(String configName, boolean defaultConfig) {
-		String value = getConfig(configName);
-		if (StringUtil.isNotEmpty(value)) {
-			return StringUtil.convertBoolean(value, defaultConfig);
-		}
-		return defaultConfig;
+		return DEFAULT.getBooleanConfig(configName, defaultConfig);
 	}
 
 	/**
@@ -101,11 +107,7 @@ public class MarsConfigManager {
 	 * @return
 	 */
 	public static double getDouebleConfig(String configName, double defaultConfig) {
-		String value = getConfig(configName);
-		if (StringUtil.isNotEmpty(value)) {
-			return StringUtil.convertDouble(value, defaultConfig);
-		}
-		return defaultConfig;
+		return DEFAULT.getDoubleConfig(configName, defaultConfig);
 	}
 
 	/**
@@ -116,11 +118,7 @@ public class MarsConfigManager {
 	 * @return
 	 */
 	public static float getFloatConfig(String configName, float defaultConfig) {
-		String value = getConfig(configName);
-		if (StringUtil.isNotEmpty(value)) {
-			return StringUtil.convertFloat(value, defaultConfig);
-		}
-		return defaultConfig;
+		return DEFAULT.getFloatConfig(configName, defaultConfig);
 	}
 
 	/**
@@ -131,11 +129,7 @@ public class MarsConfigManager {
 	 * @return
 	 */
 	public static int getIntConfig(String configName, int defaultConfig) {
-		String value = getConfig(configName);
-		if (StringUtil.isNotEmpty(value)) {
-			return StringUtil.convertInt(value, defaultConfig);
-		}
-		return defaultConfig;
+		return DEFAULT.getIntConfig(configName, defaultConfig);
 	}
 
 	/**
@@ -146,11 +140,67 @@ public class MarsConfigManager {
 	 * @return
 	 */
 	public static long getLongConfig(String configName, long defaultConfig) {
-		String value = getConfig(configName);
-		if (StringUtil.isNotEmpty(value)) {
-			return StringUtil.convertLong(value, defaultConfig);
-		}
-		return defaultConfig;
+		return DEFAULT.getLongConfig(configName, defaultConfig);
+	}
+
+	/**
+	 * get config item's value as a list, decoded once per config file version
+	 *
+	 * @param configName
+	 * @return immutable list, empty if missing or malformed
+	 * @see ConfigNamespace#getList(String)
+	 */
+	public static List<String> getList(String configName) {
+		return DEFAULT.getList(configName);
+	}
+
+	/**
+	 * get config item's value as a set of long, decoded once per config file version
+	 *
+	 * @param configName
+	 * @return immutable set, empty if missing or malformed
+	 * @see ConfigNamespace#getLongSet(String)
+	 */
+	public static Set<Long> getLongSet(String configName) {
+		return DEFAULT.getLongSet(configName);
+	}
+
+	/**
+	 * get config item's value as a map, decoded once per config file version
+	 *
+	 * @param configName
+	 * @return immutable map, empty if missing or malformed
+	 * @see ConfigNamespace#getMap(String)
+	 */
+	public static Map<String, String> getMap(String configName) {
+		return DEFAULT.getMap(configName);
+	}
+
+	/**
+	 * get config item's JSON value, decoded once per config file version, it must not be modified
+	 *
+	 * @param configName
+	 * @param type
+	 * @param <T>
+	 * @return NULL if missing or malformed
+	 * @see ConfigNamespace#getJson(String, Class)
+	 */
+	public static <T> T getJson(String configName, Class<T> type) {
+		return DEFAULT.getJson(configName, type);
+	}
+
+	/**
+	 * get config item's value decoded by decoder, decoded once per config file version
+	 *
+	 * @param configName
+	 * @param decoder
+	 * @param defaultValue
+	 * @param <T>
+	 * @return
+	 * @see ConfigNamespace#getValue(String, ConfigValueDecoder, Object)
+	 */
+	public static <T> T getValue(String configName, ConfigValueDecoder<T> decoder, T defaultValue) {
+		return DEFAULT.getValue(configName, decoder, defaultValue);
 	}
 
 	/**
@@ -254,24 +304,7 @@ public class MarsConfigManager {
 	 * @return
 	 */
 	public static String getConfig(String configName) {
-		String value = null;
-		if (StringUtil.isNotEmpty(configName)) {
-			String configFileName = null;
-			String key = null;
-			String[] params = StringUtil.splitFirst(configName, ".");
-			if (null != params && 2 == params.length) {
-				configFileName = params[0];
-				key = params[1];
-				if (StringUtil.isNotEmpty(configFileName) && StringUtil.isNotEmpty(key) && CollectionUtil
-						.isNotEmpty(configLocalMap)) {
-					Map<String, String> configMap = configLocalMap.get(configFileName);
-					if (CollectionUtil.isNotEmpty(configMap)) {
-						value = configMap.get(key);
-					}
-				}
-			}
-		}
-		return value;
+		return DEFAULT.getConfig(configName);
 	}
 
 	/**
@@ -293,28 +326,76 @@ public class MarsConfigManager {
 
 	/**
 	 * parse config file content into config map
+	 * 解析配置内容，每个[configFileName]段整体替换对应配置文件，已删除的配置项会被移除
 	 *
 	 * @param configContent
+	 * @return changes applied, empty if nothing changed
 	 */
-	public static void reloadConfigContent(String configContent) {
-		if (StringUtil.isNotEmpty(configContent)) {
-			String[] lines = StringUtil.split(configContent, "\n");
-			if (CollectionUtil.isNotEmpty(lines)) {
-				String configFileName = null;
-				for (String line : lines) {
-					if (StringUtil.isNotEmpty(line)) {
-						if (line.startsWith("#")) {// comment
-							continue;
-						}
-						if (line.startsWith("[") && line.endsWith("]")) {// config file name
-							configFileName = line.substring(1, line.length() - 1);
-						} else if (line.contains("=")) {
-							parseConfigMap(configFileName, line);
-						}
-					}
-				}
-			}
-		}
+	public static ConfigChangeSet reloadConfigContent(String configContent) {
+		return reloadConfigContents(Collections.singletonList(configContent));
+	}
+
+	/**
+	 * parse contents of several config files and publish them as one snapshot
+	 * 解析多个配置内容并作为一个快照整体发布
+	 *
+	 * @param configContents
+	 * @return changes applied, empty if nothing changed
+	 */
+	public static ConfigChangeSet reloadConfigContents(Collection<String> configContents) {
+		return DEFAULT.reloadConfigContents(configContents);
+	}
+
+	/**
+	 * parse config content in UTF-8 bytes directly, like the mapped local snapshot file
+	 * 直接解析UTF-8字节形式的配置内容
+	 *
+	 * @param configContent from position to limit, position is not changed
+	 * @return changes applied, empty if nothing changed
+	 */
+	public static ConfigChangeSet reloadConfigContent(ByteBuffer configContent) {
+		return DEFAULT.reloadConfigContent(configContent);
+	}
+
+	/**
+	 * reload changed config files and remove deleted ones as one snapshot
+	 * 批量更新和删除配置文件，作为一个快照整体发布
+	 * <p>
+	 * items before any [configFileName] line belong to the config file itself,
+	 * so a plain key=value file works as well as a file with sections
+	 * </p>
+	 *
+	 * @param fileContents     configFileName -> content
+	 * @param removedFileNames deleted config files
+	 * @return changes applied, empty if nothing changed
+	 */
+	public static ConfigChangeSet reloadConfigFiles(Map<String, String> fileContents, Collection<String> removedFileNames) {
+		return DEFAULT.reloadConfigFiles(fileContents, removedFileNames);
+	}
+
+	/**
+	 * reload changed config files in UTF-8 bytes and remove deleted ones as one snapshot,
+	 * content is parsed from bytes directly without decoding the whole content
+	 * 批量更新和删除配置文件，直接解析字节内容
+	 *
+	 * @param fileContents     configFileName -> content in UTF-8
+	 * @param removedFileNames deleted config files
+	 * @return changes applied, empty if nothing changed
+	 * @see #reloadConfigFiles(Map, Collection)
+	 */
+	public static ConfigChangeSet reloadConfigBytes(Map<String, byte[]> fileContents, Collection<String> removedFileNames) {
+		return DEFAULT.reloadConfigBytes(fileContents, removedFileNames);
+	}
+
+	/**
+	 * remove all config items of a config file
+	 * 移除整个配置文件
+	 *
+	 * @param configFileName
+	 * @return changes applied, empty if the config file is not loaded
+	 */
+	public static ConfigChangeSet removeConfigFile(String configFileName) {
+		return DEFAULT.removeConfigFile(configFileName);
 	}
 
 	/**
@@ -329,14 +410,17 @@ public class MarsConfigManager {
 			try {
 				is = MarsConfigManager.class.getClassLoader().getResourceAsStream(configFileName);
 				br = new BufferedReader(new InputStreamReader(is));
+				Map<String, Map<String, String>> updates = new HashMap<>();
+				updates.put(configFileName, new HashMap<String, String>());
 				String line = null;
 				do {
 					line = br.readLine();
 					if (null == line) {
 						break;
 					}
-					parseConfigMap(configFileName, line);
+					parseConfigMap(updates, configFileName, line);
 				} while (true);
+				DEFAULT.publish(updates, Collections.<String>emptySet());
 			} catch (Exception e) {
 				LOG.error("initConfig exception, configFileName=" + configFileName, e);
 			} finally {
@@ -360,35 +444,38 @@ public class MarsConfigManager {
 	 * parse config from a line in config file
 	 * 解析一行配置项
 	 *
+	 * @param updates        collect parsed config items
 	 * @param configFileName
 	 * @param line
 	 */
-	private static void parseConfigMap(String configFileName, String line) {
+	private static void parseConfigMap(Map<String, Map<String, String>> updates, String configFileName, String line) {
 		if (LOG.isDebugEnabled()) {
 			LOG.debug("parse config, configFileName=" + configFileName + ", line=" + line);
 		}
 		if (StringUtil.isNotEmpty(configFileName) && StringUtil.isNotEmpty(line) && !line.startsWith("#")) {
 			String[] params = StringUtil.splitFirst(line, "=");
 			if (null != params && 2 == params.length && StringUtil.isNotEmpty(params[0]) && StringUtil.isNotEmpty(params[1])) {
-				updateConfigMap(configFileName, params[0], params[1]);
+				updateConfigMap(updates, configFileName, params[0], params[1]);
 			}
 		}
 	}
 
 	/**
-	 * update local config item
-	 * 更新某一项配置
+	 * update local config item, it will be visible after published
+	 * 更新某一项配置，发布后生效
 	 *
+	 * @param updates
 	 * @param configFileName
 	 * @param key
 	 * @param value
 	 */
-	private static void updateConfigMap(String configFileName, String key, String value) {
+	private static void updateConfigMap(Map<String, Map<String, String>> updates, String configFileName, String key,
+			String value) {
 		if (StringUtil.isNotEmpty(configFileName) && StringUtil.isNotEmpty(key) && StringUtil.isNotEmpty(value)) {
-			Map<String, String> map = configLocalMap.get(configFileName);
+			Map<String, String> map = updates.get(configFileName);
 			if (null == map) {
 				map = new HashMap<>();
-				configLocalMap.put(configFileName, map);
+				updates.put(configFileName, map);
 			}
 			map.put(key, value);
 			if (LOG.isDebugEnabled()) {
@@ -397,4 +484,97 @@ public class MarsConfigManager {
 		}
 	}
 
+
+	/**
+	 * get current config snapshot, which never changes after published
+	 * 获取当前配置快照
+	 *
+	 * @return
+	 */
+	public static ConfigSnapshot getSnapshot() {
+		return DEFAULT.getSnapshot();
+	}
+
+	/**
+	 * get version of current config snapshot, increased on each reload
+	 * 获取当前配置版本号
+	 *
+	 * @return
+	 */
+	public static long getConfigVersion() {
+		return DEFAULT.getConfigVersion();
+	}
+
+	/**
+	 * create a pre-resolved int config handle
+	 * 创建预解析的int型配置句柄
+	 *
+	 * @param configName    格式： configFileName.key
+	 * @param defaultConfig 默认配置
+	 * @return
+	 */
+	public static IntConfig intHandle(String configName, int defaultConfig) {
+		return DEFAULT.intHandle(configName, defaultConfig);
+	}
+
+	/**
+	 * create a pre-resolved long config handle
+	 * 创建预解析的long型配置句柄
+	 *
+	 * @param configName    格式： configFileName.key
+	 * @param defaultConfig 默认配置
+	 * @return
+	 */
+	public static LongConfig longHandle(String configName, long defaultConfig) {
+		return DEFAULT.longHandle(configName, defaultConfig);
+	}
+
+	/**
+	 * create a pre-resolved boolean config handle
+	 * 创建预解析的boolean型配置句柄
+	 *
+	 * @param configName    格式： configFileName.key
+	 * @param defaultConfig 默认配置
+	 * @return
+	 */
+	public static BooleanConfig booleanHandle(String configName, boolean defaultConfig) {
+		return DEFAULT.booleanHandle(configName, defaultConfig);
+	}
+
+	/**
+	 * create a pre-resolved double config handle
+	 * 创建预解析的double型配置句柄
+	 *
+	 * @param configName    格式： configFileName.key
+	 * @param defaultConfig 默认配置
+	 * @return
+	 */
+	public static DoubleConfig doubleHandle(String configName, double defaultConfig) {
+		return DEFAULT.doubleHandle(configName, defaultConfig);
+	}
+
+	/**
+	 * create a pre-resolved float config handle
+	 * 创建预解析的float型配置句柄
+	 *
+	 * @param configName    格式： configFileName.key
+	 * @param defaultConfig 默认配置
+	 * @return
+	 */
+	public static FloatConfig floatHandle(String configName, float defaultConfig) {
+		return DEFAULT.floatHandle(configName, defaultConfig);
+	}
+
+	/**
+	 * create a pre-resolved string config handle
+	 * 创建预解析的字符串配置句柄
+	 *
+	 * @param configName    格式： configFileName.key
+	 * @param defaultConfig 默认配置
+	 * @return
+	 */
+	public static StringConfig stringHandle(String configName, String defaultConfig) {
+		return DEFAULT.stringHandle(configName, defaultConfig);
+	}
+
 }
@@ -0,0 +1,43 @@
+package com.extantfuture.mars.config;
+
+/**
+ * pre-resolved string config item
+ * 预解析的字符串配置项
+ *
+ * @author Rambo, <rambo@extantfuture.com>
+ * @date 2017/6/21 上午11:05
+ */
+public final class StringConfig extends ConfigHandle {
+
+	private final String defaultConfig;
+	private volatile String value;
+
+	StringConfig(String configName, String defaultConfig) {
+		super(configName);
+		this.defaultConfig = defaultConfig;
+		this.value = defaultConfig;
+	}
+
+	@Override
+	void update(String value) {
+		this.value = null == value ? defaultConfig : value;
+	}
+
+	/**
+	 * get cached value, default config if missing
+	 *
+	 * @return
+	 */
+	public String get() {
+		return value;
+	}
+
+	public String getDefaultConfig() {
+		return defaultConfig;
+	}
+
+	@Override
+	public String toString() {
+		return "StringConfig [configName=" + getConfigName() + ", value=" + value + ", defaultConfig=" + defaultConfig + "]";
+	}
+}
@@ -1,11 +1,18 @@
 package com.extantfuture.mars.config.gray;
 
+import com.extantfuture.mars.config.ConfigChange;
+import com.extantfuture.mars.config.ConfigChangeSet;
+import com.extantfuture.mars.config.ConfigSnapshot;
 import com.extantfuture.mars.config.MarsConfigManager;
+import com.extantfuture.mars.metrics.MarsMetrics;
 import com.extantfuture.mars.util.CollectionUtil;
 import com.extantfuture.mars.util.StringUtil;
 import org.apache.log4j.Logger;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * manager for gray rule config
@@ -14,6 +21,12 @@ import java.util.*;
  * config like:
  * config_key=allow;10000;%2;%5;	this means allows for default, but id=10000 or id%2==0 or id%5==0 is not allowed
  * config_key=deny;10000;2000;%2;%5;	this means not allows for default, but id=10000 or id=2000 or id%2==0 or id%5==0 is allowed
+ * config_key=deny;10000;pct:12.5:salt;	this means not allows for default, but id=10000 or 12.5% of ids are allowed,
+ * ids are hashed with murmur3 seeded by salt into 10000 buckets, salt is optional and defaults to config_key,
+ * so rollouts of different features are independent, and a rollout can be ramped up without changing the allowed ids
+ * config_key=expr;region in (cn, us) && version >= 3.2.0 && !(platform == ios) || id in (10000)
+ * 	this means allowed if the expression is true for attributes of {@link GrayContext}, see {@link GrayExpressionParser},
+ * 	the expression is compiled once when the rule is compiled
  * </p>
  *
  * @author Rambo, <rambo@extantfuture.com>
@@ -22,8 +35,22 @@ import java.util.*;
 public class GrayConfigManager {
 
 	private static final Logger LOG = Logger.getLogger(GrayConfigManager.class.getSimpleName());
-	// cache in memory
-	private static final Map<String, GrayRule> grayConfigMap = new HashMap<String, GrayRule>();
+	// cache in memory, read without lock
+	private static final Map<String, GrayRule> grayConfigMap = new ConcurrentHashMap<String, GrayRule>();
+	// lock for compiling rules into cache
+	private static final Object COMPILE_LOCK = new Object();
+	// increased under COMPILE_LOCK whenever cached rules are replaced or removed, resolved key sets of older generation are stale
+	private static volatile long generation;
+	// prefix of rollout percentage item
+	private static final String ROLLOUT_PREFIX = "pct:";
+	// context with id only, for judging expression rules by id without allocation
+	private static final ThreadLocal<GrayContext> ID_CONTEXT = ThreadLocal.withInitial(GrayContext::new);
+	// background thread to recompile rules after reload
+	private static final ExecutorService compileExecutor = Executors.newSingleThreadExecutor(r -> {
+		Thread thread = new Thread(r, "mars-gray-compiler");
+		thread.setDaemon(true);
+		return thread;
+	});
 
 	/**
 	 * judge whether is allowed by config item and id in long
@@ -37,7 +64,11 @@ public class GrayConfigManager {
 	 * @return
 	 */
 	public static boolean isAllowed(String configKey, long id) {
-		GrayRule grayConfig = parseConfig(configKey);
+		// configKey is the cache key itself, no need to split and concat again when hit
+		GrayRule grayConfig = null == configKey ? null : grayConfigMap.get(configKey);
+		if (null == grayConfig) {
+			grayConfig = parseConfig(configKey);
+		}
 		return isAllowed(grayConfig, id);
 	}
 
@@ -65,7 +96,10 @@ public class GrayConfigManager {
 	 * @return
 	 */
 	public static boolean isAllowed(String configKey, String id) {
-		GrayRule grayConfig = parseConfig(configKey);
+		GrayRule grayConfig = null == configKey ? null : grayConfigMap.get(configKey);
+		if (null == grayConfig) {
+			grayConfig = parseConfig(configKey);
+		}
 		return isAllowed(grayConfig, id);
 	}
 
@@ -83,6 +117,142 @@ public class GrayConfigManager {
 		return isAllowed(grayConfig, id);
 	}
 
+	/**
+	 * judge whether is allowed by config item and request attributes
+	 * 根据请求属性灰度判断是否允许，list and percent rules use id of context
+	 *
+	 * @param configKey <p>
+	 *                  格式: configFileName.key
+	 * @param context   reusable request attributes
+	 * @return
+	 */
+	public static boolean isAllowed(String configKey, GrayContext context) {
+		GrayRule grayConfig = null == configKey ? null : grayConfigMap.get(configKey);
+		if (null == grayConfig) {
+			grayConfig = parseConfig(configKey);
+		}
+		return isAllowed(grayConfig, context);
+	}
+
+	/**
+	 * judge whether each id is allowed by one config item
+	 * 批量判断多个id是否允许，规则只查找一次，所有id使用同一版本的规则
+	 *
+	 * @param configKey <p>
+	 *                  格式: configFileName.key
+	 * @param ids
+	 * @return bit i is set if ids[i] is allowed
+	 */
+	public static BitSet isAllowed(String configKey, long[] ids) {
+		BitSet result = new BitSet(ids.length);
+		GrayRule grayConfig = null == configKey ? null : grayConfigMap.get(configKey);
+		if (null == grayConfig) {
+			grayConfig = parseConfig(configKey);
+		}
+		if (null != grayConfig && null != grayConfig.getType()) {
+			for (int i = 0; i < ids.length; i++) {
+				if (isAllowed(grayConfig, ids[i])) {
+					result.set(i);
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * judge whether id is allowed by each config item of key set
+	 * 判断一个id在一组灰度规则下是否允许，所有规则来自同一版本，不会一部分新一部分旧
+	 *
+	 * @param id
+	 * @param keySet
+	 * @return bit i is set if id is allowed by the i-th config key of key set
+	 */
+	public static BitSet evaluateAll(long id, GrayKeySet keySet) {
+		GrayRule[] rules = resolve(keySet);
+		BitSet result = new BitSet(rules.length);
+		for (int i = 0; i < rules.length; i++) {
+			if (isAllowed(rules[i], id)) {
+				result.set(i);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * judge whether id in string is allowed by each config item of key set
+	 * 判断一个id在一组灰度规则下是否允许
+	 *
+	 * @param id
+	 * @param keySet
+	 * @return bit i is set if id is allowed by the i-th config key of key set
+	 */
+	public static BitSet evaluateAll(String id, GrayKeySet keySet) {
+		GrayRule[] rules = resolve(keySet);
+		BitSet result = new BitSet(rules.length);
+		for (int i = 0; i < rules.length; i++) {
+			if (isAllowed(rules[i], id)) {
+				result.set(i);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * judge whether request attributes are allowed by each config item of key set
+	 * 根据请求属性判断一组灰度规则
+	 *
+	 * @param context
+	 * @param keySet
+	 * @return bit i is set if allowed by the i-th config key of key set
+	 */
+	public static BitSet evaluateAll(GrayContext context, GrayKeySet keySet) {
+		GrayRule[] rules = resolve(keySet);
+		BitSet result = new BitSet(rules.length);
+		for (int i = 0; i < rules.length; i++) {
+			if (isAllowed(rules[i], context)) {
+				result.set(i);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * rules of key set, resolved again only if cached rules have been replaced since last resolving
+	 * all rules are compiled from one config snapshot: a cached rule whose source differs from the snapshot, like one
+	 * waiting for the background recompile, is compiled from the snapshot for this key set only.
+	 * no lock is taken when all keys are cached, only a key never compiled takes the compile lock
+	 *
+	 * @param keySet
+	 * @return
+	 */
+	private static GrayRule[] resolve(GrayKeySet keySet) {
+		GrayKeySet.Resolved resolved = keySet.resolved;
+		// read before the snapshot, so that rules replaced after the snapshot make this resolving stale
+		long currentGeneration = generation;
+		if (null == resolved || resolved.generation != currentGeneration) {
+			ConfigSnapshot snapshot = MarsConfigManager.getSnapshot();
+			String[] configKeys = keySet.configKeyArray();
+			GrayRule[] rules = new GrayRule[configKeys.length];
+			for (int i = 0; i < configKeys.length; i++) {
+				// a NULL key resolves to no rule, like a single key, the map does not take NULL keys
+				GrayRule grayConfig = null == configKeys[i] ? null : grayConfigMap.get(configKeys[i]);
+				if (null == grayConfig) {
+					grayConfig = parseConfig(configKeys[i]);
+				}
+				if (null != grayConfig) {
+					String config = snapshot.getConfig(grayConfig.getConfigFileName(), grayConfig.getKey());
+					if (!Objects.equals(config, grayConfig.getSource())) {
+						grayConfig = compile(grayConfig.getConfigFileName(), grayConfig.getKey(), config);
+					}
+				}
+				rules[i] = grayConfig;
+			}
+			resolved = new GrayKeySet.Resolved(currentGeneration, rules);
+			keySet.resolved = resolved;
+		}
+		return resolved.rules;
+	}
+
 	/**
 	 * fetch white list
 	 * 获取白名单
@@ -92,12 +262,29 @@ public class GrayConfigManager {
 	 */
 	public static List<String> getWhiteList(String configKey) {
 		GrayRule grayConfig = parseConfig(configKey);
-		if (Objects.nonNull(grayConfig) && grayConfig.getType().ordinal() == RuleType.DENY.ordinal()) {
+		if (Objects.nonNull(grayConfig) && RuleType.DENY == grayConfig.getType()) {
 			return grayConfig.getNameList();
 		}
 		return null;
 	}
 
+	/**
+	 * 灰度判断是否允许
+	 *
+	 * @param grayConfig
+	 * @param context
+	 * @return
+	 */
+	private static boolean isAllowed(GrayRule grayConfig, GrayContext context) {
+		if (null != grayConfig && RuleType.EXPR == grayConfig.getType()) {
+			return grayConfig.record(grayConfig.matchExpression(context));
+		}
+		if (context.hasId() && null == context.getStringId()) {
+			return isAllowed(grayConfig, context.getId());
+		}
+		return isAllowed(grayConfig, context.getStringId());
+	}
+
 	/**
 	 * 灰度判断是否允许
 	 *
@@ -107,46 +294,16 @@ public class GrayConfigManager {
 	 */
 	private static boolean isAllowed(GrayRule grayConfig, String id) {
 		if (null != grayConfig && null != grayConfig.getType()) {
-			if (RuleType.ALLOW.ordinal() == grayConfig.getType().ordinal()) {
+			if (RuleType.EXPR == grayConfig.getType()) {
+				return grayConfig.record(grayConfig.matchExpression(ID_CONTEXT.get().setId(id)));
+			} else if (RuleType.ALLOW == grayConfig.getType()) {
 				// 允许
-				// 再看看有没有黑名单
-				if (CollectionUtil.isNotEmpty(grayConfig.getNameList())) {
-					// 有黑名单
-					if (grayConfig.getNameList().contains(id)) {
-						// 被禁
-						return false;
-					}
-				}
-				// 再看看有没有百分比配置
-				if (CollectionUtil.isNotEmpty(grayConfig.getPercentList())) {
-					long hashId = hash(id);
-					for (Long percent : grayConfig.getPercentList()) {
-						if (null != percent && 0L == hashId % percent) {
-							return false;
-						}
-					}
-				}
-				return true;
+				// 有黑名单且在黑名单以内，或者命中百分比配置，被禁
+				return grayConfig.record(!(grayConfig.containsName(id) || grayConfig.matchPercent(hash(id)) || grayConfig.matchRollout(id)));
 			} else {
 				// 拒绝
-				// 再看看有没有白名单
-				if (CollectionUtil.isNotEmpty(grayConfig.getNameList())) {
-					// 有白名单
-					if (grayConfig.getNameList().contains(id)) {
-						// 在白名单以内，允许
-						return true;
-					}
-				}
-				// 再看看有没有百分比配置
-				if (CollectionUtil.isNotEmpty(grayConfig.getPercentList())) {
-					long hashId = hash(id);
-					for (Long percent : grayConfig.getPercentList()) {
-						if (null != percent && 0L == hashId % percent) {
-							return true;
-						}
-					}
-				}
-				return false;
+				// 有白名单且在白名单以内，或者命中百分比配置，允许
+				return grayConfig.record(grayConfig.containsName(id) || grayConfig.matchPercent(hash(id)) || grayConfig.matchRollout(id));
 			}
 		}
 		return false;
@@ -154,6 +311,7 @@ public class GrayConfigManager {
 
 	/**
 	 * 灰度判断是否允许
+	 * no allocation here, id is searched in compiled id array instead of name list
 	 *
 	 * @param grayConfig
 	 * @param id
@@ -161,46 +319,16 @@ public class GrayConfigManager {
 	 */
 	private static boolean isAllowed(GrayRule grayConfig, long id) {
 		if (null != grayConfig && null != grayConfig.getType()) {
-			if (RuleType.ALLOW.ordinal() == grayConfig.getType().ordinal()) {
+			if (RuleType.EXPR == grayConfig.getType()) {
+				return grayConfig.record(grayConfig.matchExpression(ID_CONTEXT.get().setId(id)));
+			} else if (RuleType.ALLOW == grayConfig.getType()) {
 				// 允许
-				// 再看看有没有黑名单
-				if (CollectionUtil.isNotEmpty(grayConfig.getNameList())) {
-					// 有黑名单
-					String name = String.valueOf(id);
-					if (grayConfig.getNameList().contains(name)) {
-						// 被禁
-						return false;
-					}
-				}
-				// 再看看有没有百分比配置
-				if (CollectionUtil.isNotEmpty(grayConfig.getPercentList())) {
-					for (Long percent : grayConfig.getPercentList()) {
-						if (null != percent && 0L == id % percent) {
-							return false;
-						}
-					}
-				}
-				return true;
+				// 有黑名单且在黑名单以内，或者命中百分比配置，被禁
+				return grayConfig.record(!(grayConfig.containsId(id) || grayConfig.matchPercent(id) || grayConfig.matchRollout(id)));
 			} else {
 				// 拒绝
-				// 再看看有没有白名单
-				if (CollectionUtil.isNotEmpty(grayConfig.getNameList())) {
-					// 有白名单
-					String name = String.valueOf(id);
-					if (grayConfig.getNameList().contains(name)) {
-						// 在白名单以内，允许
-						return true;
-					}
-				}
-				// 再看看有没有百分比配置
-				if (CollectionUtil.isNotEmpty(grayConfig.getPercentList())) {
-					for (Long percent : grayConfig.getPercentList()) {
-						if (null != percent && 0L == id % percent) {
-							return true;
-						}
-					}
-				}
-				return false;
+				// 有白名单且在白名单以内，或者命中百分比配置，允许
+				return grayConfig.record(grayConfig.containsId(id) || grayConfig.matchPercent(id) || grayConfig.matchRollout(id));
 			}
 		}
 		return false;
@@ -246,54 +374,90 @@ public class GrayConfigManager {
 	 */
 	private static GrayRule parseConfig(String configFileName, String key) {
 		GrayRule grayConfig = null;
-		try {
-			if (StringUtil.isNotEmpty(configFileName) && StringUtil.isNotEmpty(key)) {
-				String configKey = StringUtil.concat(configFileName, ".", key);
-				grayConfig = grayConfigMap.get(configKey);
-				if (null == grayConfig) {// 未命中缓存
-					String config = MarsConfigManager.getConfig(configFileName, key);
-					if (StringUtil.isNotEmpty(config)) {
-						String[] params = StringUtil.splitFirst(config, ";");
-						if (CollectionUtil.isNotEmpty(params)) {
-							RuleType ruleType = RuleType.parse(params[0]);
-							if (null != ruleType) {
-								List<Long> percentList = null;
-								List<String> nameList = null;
+		if (StringUtil.isNotEmpty(configFileName) && StringUtil.isNotEmpty(key)) {
+			String configKey = StringUtil.concat(configFileName, ".", key);
+			grayConfig = grayConfigMap.get(configKey);
+			if (null == grayConfig) {// 未命中缓存
+				// compile under the lock, so each key is compiled only once and no stale rule is put after a refresh
+				synchronized (COMPILE_LOCK) {
+					grayConfig = grayConfigMap.get(configKey);
+					if (null == grayConfig) {
+						grayConfig = compile(configFileName, key, MarsConfigManager.getConfig(configFileName, key));
+						grayConfigMap.put(configKey, grayConfig);
+					}
+				}
+			}
+		}
+		return grayConfig;
+	}
 
-								if (params.length > 1) {
-									String grayContent = params[1];
-									if (StringUtil.isNotEmpty(grayContent)) {
-										String[] grayItems = StringUtil.split(grayContent, ";");
-										if (CollectionUtil.isNotEmpty(grayItems)) {
-											percentList = new ArrayList<Long>();
-											nameList = new ArrayList<String>();
-											for (String grayItem : grayItems) {
-												if (StringUtil.isNotEmpty(grayItem)) {
-													if (grayItem.startsWith("%")) {
-														try {
-															// 百分比
-															String percent = StringUtil.removeAll(grayItem, "%");
-															Long percentValue = new Long(percent);
-															if (null != percentValue && !percentList.contains(percent)) {
-																percentList.add(percentValue);
-															}
-														} catch (NumberFormatException e) {
-														}
+	/**
+	 * 解析灰度规则
+	 * missing or invalid config is compiled into a rule without type, which is never allowed,
+	 * so that it is cached as well and not parsed on every call
+	 *
+	 * @param configFileName
+	 * @param key
+	 * @param config         config value
+	 * @return
+	 */
+	private static GrayRule compile(String configFileName, String key, String config) {
+		long startTs = System.nanoTime();
+		RuleType ruleType = null;
+		List<Long> percentList = null;
+		List<String> nameList = null;
+		Double rolloutPercent = null;
+		String rolloutSalt = null;
+		String expression = null;
+		try {
+			if (StringUtil.isNotEmpty(config)) {
+				String[] params = StringUtil.splitFirst(config, ";");
+				if (CollectionUtil.isNotEmpty(params)) {
+					ruleType = RuleType.parse(params[0]);
+					if (RuleType.EXPR == ruleType) {
+						// the whole content is one expression, compiled below
+						expression = params.length > 1 ? params[1] : "";
+					} else if (null != ruleType) {
+						if (params.length > 1) {
+							String grayContent = params[1];
+							if (StringUtil.isNotEmpty(grayContent)) {
+								String[] grayItems = StringUtil.split(grayContent, ";");
+								if (CollectionUtil.isNotEmpty(grayItems)) {
+									// dedupe by set in config order, list.contains made parsing O(n^2) for long name lists
+									Set<Long> percentSet = new LinkedHashSet<Long>();
+									Set<String> nameSet = new LinkedHashSet<String>(grayItems.length * 2);
+									for (String grayItem : grayItems) {
+										if (StringUtil.isNotEmpty(grayItem)) {
+											if (grayItem.startsWith("%")) {
+												try {
+													// 百分比
+													String percent = StringUtil.removeAll(grayItem, "%");
+													percentSet.add(Long.valueOf(percent));
+												} catch (NumberFormatException e) {
+												}
+											} else if (grayItem.startsWith(ROLLOUT_PREFIX)) {
+												// 灰度比例 pct:12.5:salt，最后一个生效
+												String[] rollout = StringUtil.splitFirst(grayItem.substring(ROLLOUT_PREFIX.length()), ":");
+												try {
+													double percent = Double.parseDouble(rollout[0]);
+													if (percent >= 0D && percent <= 100D) {
+														rolloutPercent = percent;
+														rolloutSalt = rollout.length > 1 && StringUtil.isNotEmpty(rollout[1]) ? rollout[1] : null;
 													} else {
-														// 名单
-														if (!nameList.contains(grayItem)) {
-															nameList.add(grayItem);
-														}
+														LOG.warn("invalid rollout percent, configFileName=" + configFileName + ", key=" + key + ", item=" + grayItem);
 													}
+												} catch (NumberFormatException e) {
+													LOG.warn("invalid rollout percent, configFileName=" + configFileName + ", key=" + key + ", item=" + grayItem);
 												}
+											} else {
+												// 名单
+												nameSet.add(grayItem);
 											}
 										}
 									}
+									percentList = new ArrayList<Long>(percentSet);
+									nameList = new ArrayList<String>(nameSet);
 								}
-
-								// 生成灰度配置对象
-								grayConfig = new GrayRule(configKey, ruleType, nameList, percentList);
-								grayConfigMap.put(configKey, grayConfig);
 							}
 						}
 					}
@@ -301,15 +465,89 @@ public class GrayConfigManager {
 			}
 		} catch (Exception e) {
 			LOG.error("GrayConfigUtil#parseConfig exception, drawerName=" + configFileName + ", key=" + key, e);
+			ruleType = null;
+			nameList = null;
+			percentList = null;
+			rolloutPercent = null;
+			expression = null;
 		}
-		return grayConfig;
+		// 生成灰度配置对象
+		GrayRule grayRule = new GrayRule(configFileName, key, config, ruleType, nameList, percentList);
+		if (null != rolloutPercent) {
+			grayRule.setRollout(rolloutPercent, rolloutSalt);
+		}
+		if (null != expression) {
+			try {
+				grayRule.setExpression(expression);
+			} catch (IllegalArgumentException e) {
+				// never allowed, like other invalid config
+				LOG.warn("invalid gray expression, configFileName=" + configFileName + ", key=" + key + ", " + e.getMessage());
+				grayRule.setType(null);
+			}
+		}
+		grayRule.setCounter(MarsMetrics.grayCounter(grayRule.getConfigKey()));
+		MarsMetrics.GRAY_COMPILE_LATENCY.record(System.nanoTime() - startTs);
+		return grayRule;
+	}
+
+	/**
+	 * recompile cached gray rules of changed config items in background after reload
+	 * 配置更新后，在后台线程重新编译发生变更且已缓存的灰度规则
+	 * <p>
+	 * called on every publish of the default namespace, so rules cached while their config was missing are
+	 * compiled again once it is loaded. old rules keep serving until the new ones are compiled,
+	 * so request threads never pay the parse cost, rules of unchanged keys are untouched
+	 * </p>
+	 *
+	 * @param changeSet
+	 */
+	public static void refresh(final ConfigChangeSet changeSet) {
+		if (null != changeSet && !changeSet.isEmpty()) {
+			compileExecutor.execute(() -> recompile(changeSet));
+		}
+	}
+
+	/**
+	 * 重新编译已缓存的变更灰度规则
+	 *
+	 * @param changeSet
+	 */
+	private static void recompile(ConfigChangeSet changeSet) {
+		long startTs = System.nanoTime();
+		int count = 0;
+		try {
+			synchronized (COMPILE_LOCK) {
+				// always compile from the latest snapshot, a later change set may have been published already
+				ConfigSnapshot snapshot = MarsConfigManager.getSnapshot();
+				for (ConfigChange change : changeSet.getChanges()) {
+					GrayRule grayConfig = grayConfigMap.get(change.getConfigName());
+					if (null != grayConfig) {
+						String config = snapshot.getConfig(change.getConfigFileName(), change.getKey());
+						if (!Objects.equals(config, grayConfig.getSource())) {
+							grayConfigMap.put(grayConfig.getConfigKey(), compile(change.getConfigFileName(), change.getKey(), config));
+							count++;
+						}
+					}
+				}
+				if (count > 0) {
+					generation++;
+				}
+			}
+		} catch (Throwable e) {
+			LOG.error("recompile gray config exception, version=" + changeSet.getVersion(), e);
+		}
+		LOG.info(StringUtil.concat("recompile gray config, version=", changeSet.getVersion(), ", changes=",
+								   changeSet.getChanges().size(), ", count=", count, ", cost=", System.nanoTime() - startTs, "ns"));
 	}
 
 	/**
 	 * clear Gray Config cache
 	 */
 	public static void resetGrayConfigCache() {
-		grayConfigMap.clear();
+		synchronized (COMPILE_LOCK) {
+			grayConfigMap.clear();
+			generation++;
+		}
 		LOG.info("resetGrayConfigCache");
 	}
 }
@@ -0,0 +1,138 @@
+/*
+ * Copyright (c) 2017. ExtantFuture Inc. All Rights Reserved
+ */
+
+package com.extantfuture.mars.config.gray;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * request attributes to evaluate expression gray rules, like region, app version and platform
+ * 灰度表达式的请求属性，可以在请求内复用，避免每次判断都创建Map
+ * <p>
+ * attributes are kept in an array by slot, each attribute name gets a global slot the first time it is used,
+ * so attribute names should be a fixed set like region and version, not values.
+ * not thread safe, use one context per request or per thread and call {@link #clear()} before reuse
+ * </p>
+ *
+ * @author Rambo, <rambo@extantfuture.com>
+ * @date 2017/7/11 下午5:40
+ */
+public final class GrayContext {
+
+	// attribute name -> slot
+	private static final ConcurrentHashMap<String, Integer> SLOTS = new ConcurrentHashMap<String, Integer>();
+
+	private String[] values = new String[Math.max(8, SLOTS.size())];
+	private boolean hasId;
+	private long id;
+	private String stringId;
+
+	/**
+	 * set id in long, used by id list, modulus and rollout rules
+	 *
+	 * @param id
+	 * @return
+	 */
+	public GrayContext setId(long id) {
+		this.id = id;
+		this.stringId = null;
+		this.hasId = true;
+		return this;
+	}
+
+	/**
+	 * set id in string, used by id list, modulus and rollout rules
+	 *
+	 * @param id
+	 * @return
+	 */
+	public GrayContext setId(String id) {
+		this.id = 0L;
+		this.stringId = id;
+		this.hasId = null != id;
+		return this;
+	}
+
+	/**
+	 * set attribute
+	 * 设置属性
+	 *
+	 * @param name
+	 * @param value NULL to remove
+	 * @return
+	 */
+	public GrayContext set(String name, String value) {
+		if (null != name) {
+			int slot = slot(name);
+			if (slot >= values.length) {
+				values = Arrays.copyOf(values, Math.max(slot + 1, values.length * 2));
+			}
+			values[slot] = value;
+		}
+		return this;
+	}
+
+	/**
+	 * get attribute
+	 *
+	 * @param name
+	 * @return NULL if not set
+	 */
+	public String get(String name) {
+		Integer slot = null == name ? null : SLOTS.get(name);
+		return null == slot ? null : get(slot);
+	}
+
+	/**
+	 * remove id and all attributes for reuse
+	 * 清空以便复用
+	 */
+	public void clear() {
+		Arrays.fill(values, null);
+		hasId = false;
+		id = 0L;
+		stringId = null;
+	}
+
+	public boolean hasId() {
+		return hasId;
+	}
+
+	public long getId() {
+		return id;
+	}
+
+	/**
+	 * @return NULL if id is set in long
+	 */
+	public String getStringId() {
+		return stringId;
+	}
+
+	String get(int slot) {
+		String[] current = values;
+		return slot < current.length ? current[slot] : null;
+	}
+
+	/**
+	 * slot of attribute, registered if absent
+	 *
+	 * @param name
+	 * @return
+	 */
+	static int slot(String name) {
+		Integer slot = SLOTS.get(name);
+		if (null == slot) {
+			synchronized (SLOTS) {
+				slot = SLOTS.get(name);
+				if (null == slot) {
+					slot = SLOTS.size();
+					SLOTS.put(name, slot);
+				}
+			}
+		}
+		return slot;
+	}
+}
@@ -0,0 +1,373 @@
+/*
+ * Copyright (c) 2017. ExtantFuture Inc. All Rights Reserved
+ */
+
+package com.extantfuture.mars.config.gray;
+
+import java.util.Set;
+
+/**
+ * compiled tree of gray rule expression, built once by {@link GrayExpressionParser} when the rule is compiled
+ * 编译后的灰度表达式，判断时只遍历节点，不再解析，也不分配内存
+ *
+ * @author Rambo, <rambo@extantfuture.com>
+ * @date 2017/7/11 下午5:40
+ */
+abstract class GrayExpression {
+
+	/**
+	 * evaluate against request attributes
+	 *
+	 * @param context
+	 * @return
+	 */
+	abstract boolean evaluate(GrayContext context);
+
+	/**
+	 * compare two values as versions segment by segment, like 3.10.0 > 3.9, numeric segments are compared by number,
+	 * others by chars, missing segments are 0
+	 * 按版本号逐段比较，无内存分配
+	 *
+	 * @param a
+	 * @param b
+	 * @return
+	 */
+	static int compareVersion(String a, String b) {
+		int aLength = a.length();
+		int bLength = b.length();
+		int i = 0;
+		int j = 0;
+		while (i < aLength || j < bLength) {
+			// a shorter version has empty segments at the end
+			int aStart = Math.min(i, aLength);
+			int aEnd = aStart;
+			while (aEnd < aLength && '.' != a.charAt(aEnd)) {
+				aEnd++;
+			}
+			int bStart = Math.min(j, bLength);
+			int bEnd = bStart;
+			while (bEnd < bLength && '.' != b.charAt(bEnd)) {
+				bEnd++;
+			}
+			int result = compareSegment(a, aStart, aEnd, b, bStart, bEnd);
+			if (0 != result) {
+				return result;
+			}
+			i = aEnd + 1;
+			j = bEnd + 1;
+		}
+		return 0;
+	}
+
+	private static int compareSegment(String a, int aStart, int aEnd, String b, int bStart, int bEnd) {
+		if (isDigits(a, aStart, aEnd) && isDigits(b, bStart, bEnd)) {
+			// leading zeros are ignored, then the longer number is larger
+			while (aStart < aEnd && '0' == a.charAt(aStart)) {
+				aStart++;
+			}
+			while (bStart < bEnd && '0' == b.charAt(bStart)) {
+				bStart++;
+			}
+			int lengthDiff = (aEnd - aStart) - (bEnd - bStart);
+			if (0 != lengthDiff) {
+				return lengthDiff;
+			}
+		}
+		int length = Math.min(aEnd - aStart, bEnd - bStart);
+		for (int k = 0; k < length; k++) {
+			int diff = a.charAt(aStart + k) - b.charAt(bStart + k);
+			if (0 != diff) {
+				return diff;
+			}
+		}
+		return (aEnd - aStart) - (bEnd - bStart);
+	}
+
+	private static boolean isDigits(String s, int start, int end) {
+		for (int k = start; k < end; k++) {
+			char c = s.charAt(k);
+			if (c < '0' || c > '9') {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * true or false
+	 */
+	static final class Constant extends GrayExpression {
+
+		private final boolean value;
+
+		Constant(boolean value) {
+			this.value = value;
+		}
+
+		@Override
+		boolean evaluate(GrayContext context) {
+			return value;
+		}
+
+		@Override
+		public String toString() {
+			return String.valueOf(value);
+		}
+	}
+
+	/**
+	 * a && b && ...
+	 */
+	static final class And extends GrayExpression {
+
+		private final GrayExpression[] children;
+
+		And(GrayExpression[] children) {
+			this.children = children;
+		}
+
+		@Override
+		boolean evaluate(GrayContext context) {
+			for (GrayExpression child : children) {
+				if (!child.evaluate(context)) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		@Override
+		public String toString() {
+			return join(children, " && ");
+		}
+	}
+
+	/**
+	 * a || b || ...
+	 */
+	static final class Or extends GrayExpression {
+
+		private final GrayExpression[] children;
+
+		Or(GrayExpression[] children) {
+			this.children = children;
+		}
+
+		@Override
+		boolean evaluate(GrayContext context) {
+			for (GrayExpression child : children) {
+				if (child.evaluate(context)) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		@Override
+		public String toString() {
+			return join(children, " || ");
+		}
+	}
+
+	/**
+	 * !a
+	 */
+	static final class Not extends GrayExpression {
+
+		private final GrayExpression child;
+
+		Not(GrayExpression child) {
+			this.child = child;
+		}
+
+		@Override
+		boolean evaluate(GrayContext context) {
+			return !child.evaluate(context);
+		}
+
+		@Override
+		public String toString() {
+			return "!(" + child + ")";
+		}
+	}
+
+	/**
+	 * attribute compared with a literal, a missing attribute matches no comparison
+	 * 属性比较，==和!=按字符串比较，大小比较按版本号比较
+	 */
+	static final class Compare extends GrayExpression {
+
+		private final String name;
+		private final int slot;
+		private final Operator operator;
+		private final String literal;
+
+		Compare(String name, Operator operator, String literal) {
+			this.name = name;
+			this.slot = GrayContext.slot(name);
+			this.operator = operator;
+			this.literal = literal;
+		}
+
+		@Override
+		boolean evaluate(GrayContext context) {
+			String value = context.get(slot);
+			if (null == value) {
+				return false;
+			}
+			switch (operator) {
+				case EQ:
+					return value.equals(literal);
+				case NE:
+					return !value.equals(literal);
+				case GT:
+					return compareVersion(value, literal) > 0;
+				case GE:
+					return compareVersion(value, literal) >= 0;
+				case LT:
+					return compareVersion(value, literal) < 0;
+				case LE:
+					return compareVersion(value, literal) <= 0;
+				default:
+					return false;
+			}
+		}
+
+		@Override
+		public String toString() {
+			return name + " " + operator.symbol + " " + literal;
+		}
+	}
+
+	/**
+	 * attribute in or not in a list of literals, a missing attribute matches neither
+	 */
+	static final class In extends GrayExpression {
+
+		private final String name;
+		private final int slot;
+		private final Set<String> literals;
+		private final boolean negate;
+
+		In(String name, Set<String> literals, boolean negate) {
+			this.name = name;
+			this.slot = GrayContext.slot(name);
+			this.literals = literals;
+			this.negate = negate;
+		}
+
+		@Override
+		boolean evaluate(GrayContext context) {
+			String value = context.get(slot);
+			return null != value && negate != literals.contains(value);
+		}
+
+		@Override
+		public String toString() {
+			return name + (negate ? " not in " : " in ") + literals;
+		}
+	}
+
+	/**
+	 * id of context in a list, numeric ids are kept in a bitmap like name list of {@link GrayRule}
+	 */
+	static final class IdIn extends GrayExpression {
+
+		private final GrayIdBitmap idBitmap;
+		private final Set<String> nameSet;
+		private final boolean negate;
+
+		IdIn(GrayIdBitmap idBitmap, Set<String> nameSet, boolean negate) {
+			this.idBitmap = idBitmap;
+			this.nameSet = nameSet;
+			this.negate = negate;
+		}
+
+		@Override
+		boolean evaluate(GrayContext context) {
+			if (!context.hasId()) {
+				return false;
+			}
+			String stringId = context.getStringId();
+			boolean contains;
+			if (null == stringId) {
+				contains = idBitmap.contains(context.getId());
+			} else if (GrayRule.isId(stringId)) {
+				contains = idBitmap.contains(Long.parseLong(stringId));
+			} else {
+				contains = nameSet.contains(stringId);
+			}
+			return negate != contains;
+		}
+
+		@Override
+		public String toString() {
+			return "id" + (negate ? " not in " : " in ") + "(" + idBitmap.getCardinality() + " ids, " + nameSet + ")";
+		}
+	}
+
+	/**
+	 * pct(12.5, salt), the same buckets as rollout item of {@link GrayRule}
+	 */
+	static final class Rollout extends GrayExpression {
+
+		private final int buckets;
+		private final int seed;
+
+		Rollout(int buckets, int seed) {
+			this.buckets = buckets;
+			this.seed = seed;
+		}
+
+		@Override
+		boolean evaluate(GrayContext context) {
+			if (!context.hasId() || buckets <= 0) {
+				return false;
+			}
+			String stringId = context.getStringId();
+			if (null == stringId) {
+				return GrayRule.bucket(context.getId(), seed) < buckets;
+			}
+			int hash = GrayRule.isId(stringId) ? GrayHash.hash(Long.parseLong(stringId), seed) : GrayHash.hash(stringId, seed);
+			return Integer.remainderUnsigned(hash, GrayRule.ROLLOUT_BUCKETS) < buckets;
+		}
+
+		@Override
+		public String toString() {
+			return "pct(" + buckets * 100D / GrayRule.ROLLOUT_BUCKETS + ")";
+		}
+	}
+
+	/**
+	 * comparison operator
+	 */
+	enum Operator {
+		EQ("=="), NE("!="), GT(">"), GE(">="), LT("<"), LE("<=");
+
+		private final String symbol;
+
+		Operator(String symbol) {
+			this.symbol = symbol;
+		}
+
+		static Operator parse(String symbol) {
+			for (Operator operator : values()) {
+				if (operator.symbol.equals(symbol)) {
+					return operator;
+				}
+			}
+			return null;
+		}
+	}
+
+	private static String join(GrayExpression[] children, String separator) {
+		StringBuilder sb = new StringBuilder("(");
+		for (int i = 0; i < children.length; i++) {
+			if (i > 0) {
+				sb.append(separator);
+			}
+			sb.append(children[i]);
+		}
+		return sb.append(')').toString();
+	}
+}
@@ -0,0 +1,293 @@
+/*
+ * Copyright (c) 2017. ExtantFuture Inc. All Rights Reserved
+ */
+
+package com.extantfuture.mars.config.gray;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * parser of gray rule expression
+ * 灰度表达式解析
+ * <p>
+ * grammar:
+ * <pre>
+ * expression := and ('||' and)*
+ * and        := unary ('&&' unary)*
+ * unary      := '!' unary | '(' expression ')' | 'true' | 'false' | pct | condition
+ * pct        := 'pct' '(' percent [',' salt] ')'
+ * condition  := name ('==' | '!=' | '>' | '>=' | '<' | '<=') value
+ *             | name ['not'] 'in' '(' value (',' value)* ')'
+ * value      := word | 'quoted' | "quoted"
+ * </pre>
+ * name is an attribute of {@link GrayContext}, or id for the id of context which only supports in and not in,
+ * like: region in (cn, us) && version >= 3.2.0 && !(platform == ios) || id in (10000, 20000)
+ * nesting of '(' and '!' is limited to MAX_DEPTH, so a malformed config is a syntax error instead of a stack overflow
+ * </p>
+ *
+ * @author Rambo, <rambo@extantfuture.com>
+ * @date 2017/7/11 下午5:40
+ */
+final class GrayExpressionParser {
+
+	private static final String ID = "id";
+	// max nesting of '(' and '!', parsing and matching are recursive
+	static final int MAX_DEPTH = 64;
+
+	private final String source;
+	// default salt of pct
+	private final String defaultSalt;
+	private int position;
+	// current nesting of '(' and '!'
+	private int depth;
+
+	private GrayExpressionParser(String source, String defaultSalt) {
+		this.source = source;
+		this.defaultSalt = defaultSalt;
+	}
+
+	/**
+	 * compile expression
+	 *
+	 * @param source
+	 * @param defaultSalt salt of pct without salt, usually configKey
+	 * @return
+	 * @throws IllegalArgumentException if syntax error
+	 */
+	static GrayExpression parse(String source, String defaultSalt) {
+		if (null == source) {
+			throw new IllegalArgumentException("gray expression is NULL");
+		}
+		GrayExpressionParser parser = new GrayExpressionParser(source, defaultSalt);
+		GrayExpression expression = parser.parseOr();
+		parser.skipSpaces();
+		if (parser.position < source.length()) {
+			throw parser.error("unexpected '" + source.charAt(parser.position) + "'");
+		}
+		return expression;
+	}
+
+	private GrayExpression parseOr() {
+		List<GrayExpression> children = new ArrayList<GrayExpression>();
+		children.add(parseAnd());
+		while (accept("||")) {
+			children.add(parseAnd());
+		}
+		return 1 == children.size() ? children.get(0) : new GrayExpression.Or(children.toArray(new GrayExpression[0]));
+	}
+
+	private GrayExpression parseAnd() {
+		List<GrayExpression> children = new ArrayList<GrayExpression>();
+		children.add(parseUnary());
+		while (accept("&&")) {
+			children.add(parseUnary());
+		}
+		return 1 == children.size() ? children.get(0) : new GrayExpression.And(children.toArray(new GrayExpression[0]));
+	}
+
+	private GrayExpression parseUnary() {
+		skipSpaces();
+		if (peek("!=")) {
+			throw error("unexpected '!='");
+		}
+		if (accept("!")) {
+			enter();
+			GrayExpression expression = new GrayExpression.Not(parseUnary());
+			depth--;
+			return expression;
+		}
+		if (accept("(")) {
+			enter();
+			GrayExpression expression = parseOr();
+			expect(")");
+			depth--;
+			return expression;
+		}
+		String name = readName();
+		if ("true".equals(name)) {
+			return new GrayExpression.Constant(true);
+		} else if ("false".equals(name)) {
+			return new GrayExpression.Constant(false);
+		} else if ("pct".equals(name) && peek("(")) {
+			return parseRollout();
+		}
+		return parseCondition(name);
+	}
+
+	private void enter() {
+		if (++depth > MAX_DEPTH) {
+			throw error("nested deeper than " + MAX_DEPTH);
+		}
+	}
+
+	private GrayExpression parseRollout() {
+		expect("(");
+		String percentValue = readValue();
+		double percent;
+		try {
+			percent = Double.parseDouble(percentValue);
+		} catch (NumberFormatException e) {
+			throw error("invalid percent " + percentValue);
+		}
+		if (percent < 0D || percent > 100D) {
+			throw error("percent out of range " + percentValue);
+		}
+		String salt = defaultSalt;
+		if (accept(",")) {
+			salt = readValue();
+		}
+		expect(")");
+		int buckets = (int) Math.round(percent * GrayRule.ROLLOUT_BUCKETS / 100D);
+		int seed = null == salt ? 0 : GrayHash.hash(salt, 0);
+		return new GrayExpression.Rollout(buckets, seed);
+	}
+
+	private GrayExpression parseCondition(String name) {
+		skipSpaces();
+		boolean negate = false;
+		int start = position;
+		String word = peekName();
+		if ("not".equals(word)) {
+			position += word.length();
+			skipSpaces();
+			word = peekName();
+			negate = true;
+		}
+		if ("in".equals(word)) {
+			position += word.length();
+			return parseIn(name, negate);
+		} else if (negate) {
+			position = start;
+			throw error("expect 'in' after 'not'");
+		}
+		GrayExpression.Operator operator = readOperator();
+		if (ID.equals(name)) {
+			throw error("id only supports in and not in");
+		}
+		return new GrayExpression.Compare(name, operator, readValue());
+	}
+
+	private GrayExpression parseIn(String name, boolean negate) {
+		expect("(");
+		Set<String> values = new LinkedHashSet<String>();
+		values.add(readValue());
+		while (accept(",")) {
+			values.add(readValue());
+		}
+		expect(")");
+		if (!ID.equals(name)) {
+			return new GrayExpression.In(name, values, negate);
+		}
+		long[] ids = new long[values.size()];
+		int size = 0;
+		Set<String> names = Collections.emptySet();
+		for (String value : values) {
+			if (GrayRule.isId(value)) {
+				ids[size++] = Long.parseLong(value);
+			} else {
+				if (names.isEmpty()) {
+					names = new HashSet<String>();
+				}
+				names.add(value);
+			}
+		}
+		return new GrayExpression.IdIn(GrayIdBitmap.build(ids, size), names, negate);
+	}
+
+	private GrayExpression.Operator readOperator() {
+		skipSpaces();
+		int start = position;
+		while (position < source.length() && "=!<>".indexOf(source.charAt(position)) >= 0) {
+			position++;
+		}
+		GrayExpression.Operator operator = GrayExpression.Operator.parse(source.substring(start, position));
+		if (null == operator) {
+			position = start;
+			throw error("expect operator");
+		}
+		return operator;
+	}
+
+	private String readName() {
+		skipSpaces();
+		String name = peekName();
+		if (name.isEmpty()) {
+			throw error(position < source.length() ? "unexpected '" + source.charAt(position) + "'" : "unexpected end");
+		}
+		position += name.length();
+		return name;
+	}
+
+	private String peekName() {
+		int end = position;
+		while (end < source.length() && isNameChar(source.charAt(end))) {
+			end++;
+		}
+		return source.substring(position, end);
+	}
+
+	/**
+	 * a quoted string, or a word of letters, digits and . _ - : /
+	 */
+	private String readValue() {
+		skipSpaces();
+		if (position < source.length()) {
+			char quote = source.charAt(position);
+			if ('\'' == quote || '"' == quote) {
+				int end = source.indexOf(quote, position + 1);
+				if (end < 0) {
+					throw error("unclosed quote");
+				}
+				String value = source.substring(position + 1, end);
+				position = end + 1;
+				return value;
+			}
+		}
+		int start = position;
+		while (position < source.length() && (isNameChar(source.charAt(position)) || "-:/".indexOf(source.charAt(position)) >= 0)) {
+			position++;
+		}
+		if (start == position) {
+			throw error("expect value");
+		}
+		return source.substring(start, position);
+	}
+
+	private static boolean isNameChar(char c) {
+		return Character.isLetterOrDigit(c) || '_' == c || '.' == c;
+	}
+
+	private void skipSpaces() {
+		while (position < source.length() && Character.isWhitespace(source.charAt(position))) {
+			position++;
+		}
+	}
+
+	private boolean peek(String token) {
+		skipSpaces();
+		return source.startsWith(token, position);
+	}
+
+	private boolean accept(String token) {
+		if (peek(token)) {
+			position += token.length();
+			return true;
+		}
+		return false;
+	}
+
+	private void expect(String token) {
+		if (!accept(token)) {
+			throw error("expect '" + token + "'");
+		}
+	}
+
+	private IllegalArgumentException error(String message) {
+		return new IllegalArgumentException(message + " at " + position + " of gray expression: " + source);
+	}
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright (c) 2017. ExtantFuture Inc. All Rights Reserved
+ */
+
+package com.extantfuture.mars.config.gray;
+
+/**
+ * seeded murmur3 (x86, 32 bits) hash of gray ids, no allocation
+ * 灰度id的murmur3哈希，带种子，不分配内存
+ * <p>
+ * a long id is hashed as its 8 bytes in little endian, a String id as its UTF-16 chars,
+ * two chars per block, the same as guava's Hashing.murmur3_32().hashUnencodedChars
+ * </p>
+ *
+ * @author Rambo, <rambo@extantfuture.com>
+ * @date 2017/7/11 下午3:20
+ */
+final class GrayHash {
+
+	private static final int C1 = 0xcc9e2d51;
+	private static final int C2 = 0x1b873593;
+
+	private GrayHash() {
+	}
+
+	/**
+	 * hash a long id
+	 *
+	 * @param id
+	 * @param seed
+	 * @return
+	 */
+	static int hash(long id, int seed) {
+		int h1 = mixH1(seed, mixK1((int) id));
+		h1 = mixH1(h1, mixK1((int) (id >>> 32)));
+		return fmix(h1, 8);
+	}
+
+	/**
+	 * hash chars of a String id
+	 *
+	 * @param id
+	 * @param seed
+	 * @return
+	 */
+	static int hash(String id, int seed) {
+		int h1 = seed;
+		int length = id.length();
+		for (int i = 1; i < length; i += 2) {
+			int k1 = id.charAt(i - 1) | (id.charAt(i) << 16);
+			h1 = mixH1(h1, mixK1(k1));
+		}
+		if (1 == (length & 1)) {
+			h1 ^= mixK1(id.charAt(length - 1));
+		}
+		return fmix(h1, 2 * length);
+	}
+
+	private static int mixK1(int k1) {
+		k1 *= C1;
+		k1 = Integer.rotateLeft(k1, 15);
+		k1 *= C2;
+		return k1;
+	}
+
+	private static int mixH1(int h1, int k1) {
+		h1 ^= k1;
+		h1 = Integer.rotateLeft(h1, 13);
+		h1 = h1 * 5 + 0xe6546b64;
+		return h1;
+	}
+
+	private static int fmix(int h1, int length) {
+		h1 ^= length;
+		h1 ^= h1 >>> 16;
+		h1 *= 0x85ebca6b;
+		h1 ^= h1 >>> 13;
+		h1 *= 0xc2b2ae35;
+		h1 ^= h1 >>> 16;
+		return h1;
+	}
+}
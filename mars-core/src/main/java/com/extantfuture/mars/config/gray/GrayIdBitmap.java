@@ -0,0 +1,172 @@
+/*
+ * Copyright (c) 2017. ExtantFuture Inc. All Rights Reserved
+ */
+
+package com.extantfuture.mars.config.gray;
+
+import java.util.Arrays;
+
+/**
+ * compressed bitmap of numeric ids in gray name list, roaring style
+ * 灰度名单中数字id的压缩位图
+ * <p>
+ * ids are grouped into chunks by the high 48 bits, each chunk keeps the low 16 bits either in a sorted array
+ * when it has at most 4096 ids (2 bytes per id), or in a 65536 bits bitmap when denser (8KB per chunk).
+ * chunks are found by an open addressing table, so a lookup is one hash probe plus one bit test or a short binary search,
+ * and never allocates
+ * </p>
+ *
+ * @author Rambo, <rambo@extantfuture.com>
+ * @date 2017/7/10 上午11:30
+ */
+final class GrayIdBitmap {
+
+	static final GrayIdBitmap EMPTY = build(new long[0], 0);
+
+	// a chunk with more ids than this is kept as bitmap, same as roaring
+	private static final int ARRAY_CONTAINER_MAX = 4096;
+	private static final int BITMAP_WORDS = 65536 / 64;
+
+	// open addressing table of chunk key (high 48 bits) -> chunk index, -1 for empty slot
+	private final long[] slotKeys;
+	private final int[] slotIndexes;
+	private final int mask;
+	// chunk index -> sorted low 16 bits, NULL if the chunk is a bitmap
+	private final char[][] arrays;
+	// chunk index -> bitmap of low 16 bits, NULL if the chunk is an array
+	private final long[][] bitmaps;
+	private final int cardinality;
+
+	private GrayIdBitmap(long[] slotKeys, int[] slotIndexes, char[][] arrays, long[][] bitmaps, int cardinality) {
+		this.slotKeys = slotKeys;
+		this.slotIndexes = slotIndexes;
+		this.mask = slotKeys.length - 1;
+		this.arrays = arrays;
+		this.bitmaps = bitmaps;
+		this.cardinality = cardinality;
+	}
+
+	/**
+	 * build bitmap from ids, the array is sorted in place
+	 *
+	 * @param ids
+	 * @param size count of ids in the array
+	 * @return
+	 */
+	static GrayIdBitmap build(long[] ids, int size) {
+		Arrays.sort(ids, 0, size);
+		// count distinct ids and chunks
+		int chunkCount = 0;
+		int distinct = 0;
+		for (int i = 0; i < size; i++) {
+			if (0 == i || ids[i] != ids[i - 1]) {
+				distinct++;
+				if (0 == i || (ids[i] >>> 16) != (ids[i - 1] >>> 16)) {
+					chunkCount++;
+				}
+			}
+		}
+		int capacity = 2;
+		while (capacity < chunkCount * 2) {
+			capacity <<= 1;
+		}
+		long[] slotKeys = new long[capacity];
+		int[] slotIndexes = new int[capacity];
+		Arrays.fill(slotIndexes, -1);
+		char[][] arrays = new char[chunkCount][];
+		long[][] bitmaps = new long[chunkCount][];
+		int chunk = 0;
+		int start = 0;
+		while (start < size) {
+			long high = ids[start] >>> 16;
+			int end = start;
+			int count = 0;
+			while (end < size && (ids[end] >>> 16) == high) {
+				if (end == start || ids[end] != ids[end - 1]) {
+					count++;
+				}
+				end++;
+			}
+			if (count > ARRAY_CONTAINER_MAX) {
+				long[] bitmap = new long[BITMAP_WORDS];
+				for (int i = start; i < end; i++) {
+					int low = (int) (ids[i] & 0xFFFFL);
+					bitmap[low >>> 6] |= 1L << low;
+				}
+				bitmaps[chunk] = bitmap;
+			} else {
+				char[] array = new char[count];
+				int n = 0;
+				for (int i = start; i < end; i++) {
+					if (i == start || ids[i] != ids[i - 1]) {
+						array[n++] = (char) (ids[i] & 0xFFFFL);
+					}
+				}
+				arrays[chunk] = array;
+			}
+			int slot = hash(high) & (capacity - 1);
+			while (-1 != slotIndexes[slot]) {
+				slot = (slot + 1) & (capacity - 1);
+			}
+			slotKeys[slot] = high;
+			slotIndexes[slot] = chunk;
+			chunk++;
+			start = end;
+		}
+		return new GrayIdBitmap(slotKeys, slotIndexes, arrays, bitmaps, distinct);
+	}
+
+	/**
+	 * whether id is in the bitmap
+	 *
+	 * @param id
+	 * @return
+	 */
+	boolean contains(long id) {
+		if (0 == cardinality) {
+			return false;
+		}
+		long high = id >>> 16;
+		int slot = hash(high) & mask;
+		int chunk;
+		while (-1 != (chunk = slotIndexes[slot])) {
+			if (high == slotKeys[slot]) {
+				int low = (int) (id & 0xFFFFL);
+				long[] bitmap = bitmaps[chunk];
+				if (null != bitmap) {
+					return 0L != (bitmap[low >>> 6] & (1L << low));
+				}
+				return Arrays.binarySearch(arrays[chunk], (char) low) >= 0;
+			}
+			slot = (slot + 1) & mask;
+		}
+		return false;
+	}
+
+	/**
+	 * count of distinct ids
+	 *
+	 * @return
+	 */
+	int getCardinality() {
+		return cardinality;
+	}
+
+	/**
+	 * approximate memory of containers in bytes
+	 *
+	 * @return
+	 */
+	long getSizeInBytes() {
+		long size = slotKeys.length * 12L;
+		for (int i = 0; i < arrays.length; i++) {
+			size += null != bitmaps[i] ? BITMAP_WORDS * 8L : arrays[i].length * 2L;
+		}
+		return size;
+	}
+
+	private static int hash(long high) {
+		long h = high * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32));
+	}
+}
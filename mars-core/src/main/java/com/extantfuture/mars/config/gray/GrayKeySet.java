@@ -0,0 +1,98 @@
+/*
+ * Copyright (c) 2017. ExtantFuture Inc. All Rights Reserved
+ */
+
+package com.extantfuture.mars.config.gray;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * a fixed set of gray config keys to be evaluated together by {@link GrayConfigManager#evaluateAll(long, GrayKeySet)}
+ * 一组预先解析的灰度配置项，用于一次判断多个灰度规则
+ * <p>
+ * create it once and reuse it, the rules are resolved once and resolved again only after gray rules are refreshed,
+ * bit i of the evaluation result is the result of the i-th config key
+ * </p>
+ *
+ * @author Rambo, <rambo@extantfuture.com>
+ * @date 2017/7/11 下午3:20
+ */
+public final class GrayKeySet {
+
+	private final String[] configKeys;
+	// rules resolved from a single config snapshot, replaced as a whole
+	volatile Resolved resolved;
+
+	/**
+	 * @param configKeys 格式: configFileName.key
+	 */
+	public GrayKeySet(String... configKeys) {
+		this.configKeys = configKeys.clone();
+	}
+
+	/**
+	 * @param configKeys 格式: configFileName.key
+	 */
+	public GrayKeySet(Collection<String> configKeys) {
+		this.configKeys = configKeys.toArray(new String[0]);
+	}
+
+	public int size() {
+		return configKeys.length;
+	}
+
+	/**
+	 * config key at index
+	 *
+	 * @param index
+	 * @return
+	 */
+	public String getConfigKey(int index) {
+		return configKeys[index];
+	}
+
+	/**
+	 * index of config key, which is the bit index in evaluation result
+	 *
+	 * @param configKey
+	 * @return -1 if not in this set
+	 */
+	public int indexOf(String configKey) {
+		for (int i = 0; i < configKeys.length; i++) {
+			if (configKeys[i].equals(configKey)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	public List<String> getConfigKeys() {
+		return Collections.unmodifiableList(Arrays.asList(configKeys));
+	}
+
+	String[] configKeyArray() {
+		return configKeys;
+	}
+
+	@Override
+	public String toString() {
+		return "GrayKeySet " + Arrays.toString(configKeys);
+	}
+
+	/**
+	 * rules of config keys resolved in one generation of gray rule cache
+	 */
+	static final class Resolved {
+
+		final long generation;
+		final GrayRule[] rules;
+
+		Resolved(long generation, GrayRule[] rules) {
+			this.generation = generation;
+			this.rules = rules;
+		}
+	}
+}
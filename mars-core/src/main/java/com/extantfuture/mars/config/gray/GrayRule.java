@@ -4,7 +4,13 @@
 
 package com.extantfuture.mars.config.gray;
 
+import com.extantfuture.mars.metrics.HitCounter;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 /**
  * 灰度策略
@@ -14,14 +20,45 @@ import java.util.List;
  */
 public class GrayRule {
 
+	// count of buckets for rollout percentage, 0.01% per bucket
+	static final int ROLLOUT_BUCKETS = 10000;
+
 	// 配置项名 configFileName+key
 	private String configKey;
+	// 配置文件名
+	private String configFileName;
+	// 配置项key
+	private String key;
+	// 原始配置内容
+	private String source;
 	// 规则类型
 	private RuleType type;
 	// 名单列表
 	private List<String> nameList;
 	// 取模规则列表
 	private List<Long> percentList;
+	// 灰度比例，如12.5表示按id哈希分桶后12.5%的id命中，NULL表示没有比例规则
+	private Double rolloutPercent;
+	// 灰度比例的盐，NULL时使用configKey，不同功能的分桶相互独立
+	private String rolloutSalt;
+	// 灰度表达式，仅expr类型使用
+	private String expression;
+
+	// compiled from nameList and percentList, so that judging needs no allocation
+	// 名单中的数字id，压缩位图
+	private GrayIdBitmap idBitmap = GrayIdBitmap.EMPTY;
+	// 名单中的非数字名字
+	private Set<String> nameSet = Collections.emptySet();
+	// 取模规则，已去掉非法的0
+	private long[] percentArray = new long[0];
+	// 命中的分桶数，-1表示没有比例规则
+	private int rolloutBuckets = -1;
+	// 分桶哈希的种子，由盐计算
+	private int rolloutSeed;
+	// 编译后的灰度表达式
+	private GrayExpression compiledExpression;
+	// allow and deny counter, resolved once when compiled
+	private HitCounter counter;
 
 	public GrayRule() {
 		super();
@@ -33,6 +70,16 @@ public class GrayRule {
 		this.type = type;
 		this.nameList = nameList;
 		this.percentList = percentList;
+		compileNameList();
+		compilePercentList();
+	}
+
+	public GrayRule(String configFileName, String key, String source, RuleType type, List<String> nameList,
+			List<Long> percentList) {
+		this(configFileName + "." + key, type, nameList, percentList);
+		this.configFileName = configFileName;
+		this.key = key;
+		this.source = source;
 	}
 
 	public String getConfigKey() {
@@ -41,6 +88,23 @@ public class GrayRule {
 
 	public void setConfigKey(String configKey) {
 		this.configKey = configKey;
+		// configKey is the default salt
+		compileRollout();
+		if (null != expression) {
+			compiledExpression = GrayExpressionParser.parse(expression, configKey);
+		}
+	}
+
+	public String getConfigFileName() {
+		return configFileName;
+	}
+
+	public String getKey() {
+		return key;
+	}
+
+	public String getSource() {
+		return source;
 	}
 
 	public RuleType getType() {
@@ -57,6 +121,7 @@ public class GrayRule {
 
 	public void setNameList(List<String> nameList) {
 		this.nameList = nameList;
+		compileNameList();
 	}
 
 	public List<Long> getPercentList() {
@@ -65,12 +130,255 @@ public class GrayRule {
 
 	public void setPercentList(List<Long> percentList) {
 		this.percentList = percentList;
+		compilePercentList();
+	}
+
+	public Double getRolloutPercent() {
+		return rolloutPercent;
+	}
+
+	public String getRolloutSalt() {
+		return rolloutSalt;
+	}
+
+	/**
+	 * set rollout percentage
+	 * 设置灰度比例
+	 *
+	 * @param rolloutPercent 0 to 100, like 12.5, NULL to remove
+	 * @param rolloutSalt    NULL to use configKey
+	 */
+	public void setRollout(Double rolloutPercent, String rolloutSalt) {
+		this.rolloutPercent = rolloutPercent;
+		this.rolloutSalt = rolloutSalt;
+		compileRollout();
+	}
+
+	public String getExpression() {
+		return expression;
+	}
+
+	/**
+	 * set expression of expr rule, compiled here
+	 * 设置并编译灰度表达式
+	 *
+	 * @param expression NULL to remove
+	 * @throws IllegalArgumentException if syntax error
+	 */
+	public void setExpression(String expression) {
+		this.compiledExpression = null == expression ? null : GrayExpressionParser.parse(expression, configKey);
+		this.expression = expression;
+	}
+
+	/**
+	 * evaluate expression
+	 * 判断表达式是否为真
+	 *
+	 * @param context
+	 * @return false if no expression
+	 */
+	boolean matchExpression(GrayContext context) {
+		GrayExpression current = compiledExpression;
+		return null != current && current.evaluate(context);
+	}
+
+	void setCounter(HitCounter counter) {
+		this.counter = counter;
+	}
+
+	/**
+	 * count result of evaluation
+	 *
+	 * @param allowed
+	 * @return allowed
+	 */
+	boolean record(boolean allowed) {
+		HitCounter current = counter;
+		if (null != current) {
+			current.record(allowed);
+		}
+		return allowed;
+	}
+
+	/**
+	 * whether id is in name list
+	 * 数字id是否在名单中
+	 *
+	 * @param id
+	 * @return
+	 */
+	boolean containsId(long id) {
+		return idBitmap.contains(id);
+	}
+
+	/**
+	 * whether name is in name list
+	 * 名字是否在名单中
+	 *
+	 * @param name
+	 * @return
+	 */
+	boolean containsName(String name) {
+		if (isId(name)) {
+			// numeric names are kept in the bitmap only
+			return idBitmap.contains(Long.parseLong(name));
+		}
+		return !nameSet.isEmpty() && nameSet.contains(name);
+	}
+
+	/**
+	 * whether hit any modulus rule
+	 * 是否命中取模规则
+	 *
+	 * @param hashId
+	 * @return
+	 */
+	boolean matchPercent(long hashId) {
+		long[] percents = percentArray;
+		for (int i = 0; i < percents.length; i++) {
+			if (0L == hashId % percents[i]) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * whether id falls into the rollout buckets
+	 * 是否命中灰度比例
+	 *
+	 * @param id
+	 * @return
+	 */
+	boolean matchRollout(long id) {
+		int buckets = rolloutBuckets;
+		return buckets > 0 && bucket(id, rolloutSeed) < buckets;
+	}
+
+	/**
+	 * whether id falls into the rollout buckets, numeric id falls into the same bucket as the long id
+	 * 是否命中灰度比例
+	 *
+	 * @param id
+	 * @return
+	 */
+	boolean matchRollout(String id) {
+		int buckets = rolloutBuckets;
+		if (buckets <= 0 || null == id) {
+			return false;
+		}
+		int hash = isId(id) ? GrayHash.hash(Long.parseLong(id), rolloutSeed) : GrayHash.hash(id, rolloutSeed);
+		return Integer.remainderUnsigned(hash, ROLLOUT_BUCKETS) < buckets;
+	}
+
+	/**
+	 * bucket of id in [0, 10000)
+	 *
+	 * @param id
+	 * @param seed
+	 * @return
+	 */
+	static int bucket(long id, int seed) {
+		return Integer.remainderUnsigned(GrayHash.hash(id, seed), ROLLOUT_BUCKETS);
+	}
+
+	private void compileNameList() {
+		GrayIdBitmap ids = GrayIdBitmap.EMPTY;
+		Set<String> names = Collections.emptySet();
+		if (null != nameList && !nameList.isEmpty()) {
+			long[] idArray = new long[nameList.size()];
+			int size = 0;
+			for (String name : nameList) {
+				if (null != name) {
+					if (isId(name)) {
+						idArray[size++] = Long.parseLong(name);
+					} else {
+						if (names.isEmpty()) {
+							names = new HashSet<>();
+						}
+						names.add(name);
+					}
+				}
+			}
+			ids = GrayIdBitmap.build(idArray, size);
+		}
+		this.idBitmap = ids;
+		this.nameSet = names;
+	}
+
+	private void compilePercentList() {
+		long[] percents = new long[0];
+		if (null != percentList && !percentList.isEmpty()) {
+			percents = new long[percentList.size()];
+			int size = 0;
+			for (Long percent : percentList) {
+				if (null != percent && 0L != percent) {
+					percents[size++] = percent;
+				}
+			}
+			percents = Arrays.copyOf(percents, size);
+		}
+		this.percentArray = percents;
+	}
+
+	private void compileRollout() {
+		int buckets = -1;
+		int seed = 0;
+		if (null != rolloutPercent && rolloutPercent >= 0D && rolloutPercent <= 100D) {
+			buckets = (int) Math.round(rolloutPercent * ROLLOUT_BUCKETS / 100D);
+			String salt = null != rolloutSalt ? rolloutSalt : configKey;
+			seed = null == salt ? 0 : GrayHash.hash(salt, 0);
+		}
+		this.rolloutSeed = seed;
+		this.rolloutBuckets = buckets;
+	}
+
+	/**
+	 * whether name is written the same as String.valueOf(id) of a long id, checked without allocation
+	 * 仅当名字与String.valueOf(id)完全一致时才视为数字id
+	 *
+	 * @param name
+	 * @return
+	 */
+	static boolean isId(String name) {
+		if (null == name) {
+			return false;
+		}
+		int length = name.length();
+		int start = length > 0 && '-' == name.charAt(0) ? 1 : 0;
+		int digits = length - start;
+		if (digits <= 0 || digits > 19) {
+			return false;
+		}
+		char first = name.charAt(start);
+		if ('0' == first && (digits > 1 || 1 == start)) {
+			// leading zero or -0
+			return false;
+		}
+		for (int i = start; i < length; i++) {
+			char c = name.charAt(i);
+			if (c < '0' || c > '9') {
+				return false;
+			}
+		}
+		if (19 == digits) {
+			// may overflow, compare with the bound of long
+			String bound = 1 == start ? "9223372036854775808" : "9223372036854775807";
+			for (int i = 0; i < 19; i++) {
+				char c = name.charAt(start + i);
+				char b = bound.charAt(i);
+				if (c != b) {
+					return c < b;
+				}
+			}
+		}
+		return true;
 	}
 
 	@Override
 	public String toString() {
 		return "GrayRule [configKey=" + configKey + ", type=" + type + ", nameList=" + nameList + ", percentList=" + percentList
-				+ "]";
+				+ ", rolloutPercent=" + rolloutPercent + ", rolloutSalt=" + rolloutSalt + ", expression=" + expression + "]";
 	}
 
 	@Override
@@ -81,6 +389,9 @@ public class GrayRule {
 		result = prime * result + ((nameList == null) ? 0 : nameList.hashCode());
 		result = prime * result + ((percentList == null) ? 0 : percentList.hashCode());
 		result = prime * result + ((type == null) ? 0 : type.hashCode());
+		result = prime * result + ((rolloutPercent == null) ? 0 : rolloutPercent.hashCode());
+		result = prime * result + ((rolloutSalt == null) ? 0 : rolloutSalt.hashCode());
+		result = prime * result + ((expression == null) ? 0 : expression.hashCode());
 		return result;
 	}
 
@@ -110,6 +421,21 @@ public class GrayRule {
 			return false;
 		if (type != other.type)
 			return false;
+		if (rolloutPercent == null) {
+			if (other.rolloutPercent != null)
+				return false;
+		} else if (!rolloutPercent.equals(other.rolloutPercent))
+			return false;
+		if (rolloutSalt == null) {
+			if (other.rolloutSalt != null)
+				return false;
+		} else if (!rolloutSalt.equals(other.rolloutSalt))
+			return false;
+		if (expression == null) {
+			if (other.expression != null)
+				return false;
+		} else if (!expression.equals(other.expression))
+			return false;
 		return true;
 	}
 }
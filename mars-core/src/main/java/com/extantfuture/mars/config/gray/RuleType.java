@@ -3,7 +3,7 @@ package com.extantfuture.mars.config.gray;
 import com.extantfuture.mars.util.StringUtil;
 
 /**
- * 灰度规则类型(拒绝/允许)
+ * 灰度规则类型(拒绝/允许/表达式)
  *
  * @author Rambo, <rambo@extantfuture.com>
  * @date 2017/6/16 下午8:46
@@ -16,7 +16,10 @@ public enum RuleType {
 	DENY("deny"), /**
 	 * 允许
 	 */
-	ALLOW("allow");
+	ALLOW("allow"), /**
+	 * 表达式，表达式为真时允许，如expr;region in (cn, us) && version >= 3.2.0
+	 */
+	EXPR("expr");
 
 	private String value;
 
@@ -0,0 +1,27 @@
+package com.extantfuture.mars.config.listener;
+
+import com.extantfuture.mars.config.ConfigChange;
+
+import java.util.List;
+
+/**
+ * listener for changes of config items
+ * 配置项变更监听器，按配置项或配置项前缀注册
+ * <p>
+ * changes in one coalescing window are merged, each config item appears at most once with the value before the window
+ * and the value after it, items changed back to the original value are dropped.
+ * it is called on the dispatcher thread, never on the thread applying the reload, and never concurrently with itself
+ * </p>
+ *
+ * @author Rambo, <rambo@extantfuture.com>
+ * @date 2017/6/26 上午10:30
+ */
+public interface ConfigListener {
+
+	/**
+	 * called when watched config items changed
+	 *
+	 * @param changes coalesced changes, never empty
+	 */
+	void onChange(List<ConfigChange> changes);
+}
@@ -0,0 +1,374 @@
+package com.extantfuture.mars.config.listener;
+
+import com.extantfuture.mars.config.ConfigChange;
+import com.extantfuture.mars.config.ConfigChangeSet;
+import com.extantfuture.mars.config.ConfigNamespace;
+import com.extantfuture.mars.config.MarsCallback;
+import com.extantfuture.mars.metrics.MarsMetrics;
+import com.extantfuture.mars.util.StringUtil;
+import org.apache.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * manager for config change listeners
+ * 配置变更监听管理类
+ * <p>
+ * listeners are registered on a config item (configFileName.key) or a prefix of config items (configFileName. for
+ * the whole config file), changes in a window are coalesced and dispatched on dedicated threads,
+ * so a slow listener never blocks the reload.
+ * listeners without a namespace listen to the default namespace
+ * </p>
+ *
+ * @author Rambo, <rambo@extantfuture.com>
+ * @date 2017/6/26 上午10:30
+ */
+public class ConfigListenerManager {
+
+	private static final Logger LOG = Logger.getLogger(ConfigListenerManager.class.getSimpleName());
+	// default coalescing window
+	private static final long DEFAULT_WINDOW_MILLIS = 100L;
+
+	private static final List<Registration> registrationList = new CopyOnWriteArrayList<>();
+	// coalescing window in milliseconds
+	private static volatile long windowMillis = DEFAULT_WINDOW_MILLIS;
+	// timer to flush coalesced changes after the window
+	private static final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(r -> {
+		Thread thread = new Thread(r, "mars-listener-timer");
+		thread.setDaemon(true);
+		return thread;
+	});
+	// threads to call listeners
+	private static final ExecutorService dispatcher = Executors.newCachedThreadPool(new ThreadFactory() {
+
+		private final AtomicInteger index = new AtomicInteger();
+
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, "mars-listener-dispatcher-" + index.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+
+	/**
+	 * listen to one config item
+	 * 监听单个配置项
+	 *
+	 * @param configName 格式： configFileName.key
+	 * @param listener
+	 */
+	public static void addListener(String configName, ConfigListener listener) {
+		addListener(ConfigNamespace.DEFAULT_NAME, configName, listener);
+	}
+
+	/**
+	 * listen to one config item of a namespace
+	 * 监听某命名空间的单个配置项
+	 *
+	 * @param namespace  module name of the namespace
+	 * @param configName 格式： configFileName.key
+	 * @param listener
+	 */
+	public static void addListener(String namespace, String configName, ConfigListener listener) {
+		if (StringUtil.isNotEmpty(configName) && null != listener) {
+			registrationList.add(new Registration(namespaceName(namespace), configName, false, listener, listener));
+		}
+	}
+
+	/**
+	 * listen to config items with the prefix
+	 * 监听某前缀的全部配置项，如 configFileName. 监听整个配置文件
+	 *
+	 * @param prefix
+	 * @param listener
+	 */
+	public static void addPrefixListener(String prefix, ConfigListener listener) {
+		addPrefixListener(ConfigNamespace.DEFAULT_NAME, prefix, listener);
+	}
+
+	/**
+	 * listen to config items with the prefix in a namespace
+	 * 监听某命名空间中某前缀的全部配置项
+	 *
+	 * @param namespace module name of the namespace
+	 * @param prefix
+	 * @param listener
+	 */
+	public static void addPrefixListener(String namespace, String prefix, ConfigListener listener) {
+		if (StringUtil.isNotEmpty(prefix) && null != listener) {
+			registrationList.add(new Registration(namespaceName(namespace), prefix, true, listener, listener));
+		}
+	}
+
+	/**
+	 * remove listener from all config items it listens to
+	 * 移除监听器
+	 *
+	 * @param listener
+	 */
+	public static void removeListener(ConfigListener listener) {
+		removeByTarget(listener);
+	}
+
+	/**
+	 * adapt file level callback, it is called once for all coalesced changes of its config file
+	 * 添加配置文件级别的回调
+	 *
+	 * @param callback
+	 */
+	public static void addCallback(MarsCallback callback) {
+		addCallback(ConfigNamespace.DEFAULT_NAME, callback);
+	}
+
+	/**
+	 * adapt file level callback of a config file in a namespace
+	 * 添加某命名空间中配置文件级别的回调
+	 * the same callback added twice to a namespace is registered once, it can be added to other namespaces as well
+	 *
+	 * @param namespace module name of the namespace
+	 * @param callback
+	 */
+	public static void addCallback(String namespace, final MarsCallback callback) {
+		if (null != callback && StringUtil.isNotEmpty(callback.watchConfigFileName())) {
+			String namespaceName = namespaceName(namespace);
+			ConfigListener listener = changes -> callback.reloadConfig();
+			// check and add atomically, so the same callback added concurrently is registered once
+			synchronized (registrationList) {
+				for (Registration registration : registrationList) {
+					if (registration.target == callback && registration.namespace.equals(namespaceName)) {
+						return;
+					}
+				}
+				registrationList.add(new Registration(namespaceName, callback.watchConfigFileName() + ".", true, listener,
+													  callback));
+			}
+		}
+	}
+
+	/**
+	 * remove file level callback from all namespaces
+	 * 移除配置文件级别的回调
+	 *
+	 * @param callback
+	 */
+	public static void removeCallback(MarsCallback callback) {
+		removeByTarget(callback);
+	}
+
+	/**
+	 * remove file level callback from a namespace, it stays registered in other namespaces
+	 * 移除某命名空间中配置文件级别的回调
+	 *
+	 * @param namespace module name of the namespace
+	 * @param callback
+	 */
+	public static void removeCallback(String namespace, MarsCallback callback) {
+		if (null != callback) {
+			String namespaceName = namespaceName(namespace);
+			for (Registration registration : registrationList) {
+				if (registration.target == callback && registration.namespace.equals(namespaceName)) {
+					registrationList.remove(registration);
+				}
+			}
+		}
+	}
+
+	/**
+	 * remove all file level callbacks of the default namespace
+	 * 移除所有配置文件级别的回调
+	 */
+	public static void removeAllCallbacks() {
+		removeAllCallbacks(ConfigNamespace.DEFAULT_NAME);
+	}
+
+	/**
+	 * remove all file level callbacks of a namespace
+	 * 移除某命名空间的所有配置文件级别的回调
+	 *
+	 * @param namespace
+	 */
+	public static void removeAllCallbacks(String namespace) {
+		String namespaceName = namespaceName(namespace);
+		for (Registration registration : registrationList) {
+			if (registration.target instanceof MarsCallback && registration.namespace.equals(namespaceName)) {
+				registrationList.remove(registration);
+			}
+		}
+	}
+
+	/**
+	 * set coalescing window, changes in the window are dispatched together
+	 * 设置合并窗口，0表示不合并立即分发
+	 *
+	 * @param millis
+	 */
+	public static void setWindowMillis(long millis) {
+		windowMillis = Math.max(0L, millis);
+	}
+
+	/**
+	 * dispatch changes of the default namespace to listeners, returns immediately
+	 * 分发配置变更，不阻塞调用线程
+	 *
+	 * @param changeSet
+	 */
+	public static void dispatch(ConfigChangeSet changeSet) {
+		dispatch(ConfigNamespace.DEFAULT_NAME, changeSet);
+	}
+
+	/**
+	 * dispatch changes of a namespace to its listeners, returns immediately
+	 * 分发某命名空间的配置变更
+	 *
+	 * @param namespace
+	 * @param changeSet
+	 */
+	public static void dispatch(String namespace, ConfigChangeSet changeSet) {
+		if (null == changeSet || changeSet.isEmpty() || registrationList.isEmpty()) {
+			return;
+		}
+		List<ConfigChange> changes = changeSet.getChanges();
+		String[] configNames = new String[changes.size()];
+		for (int i = 0; i < configNames.length; i++) {
+			configNames[i] = changes.get(i).getConfigName();
+		}
+		String namespaceName = namespaceName(namespace);
+		for (Registration registration : registrationList) {
+			if (!registration.namespace.equals(namespaceName)) {
+				continue;
+			}
+			List<ConfigChange> matched = null;
+			for (int i = 0; i < configNames.length; i++) {
+				if (registration.matches(configNames[i])) {
+					if (null == matched) {
+						matched = new ArrayList<>();
+					}
+					matched.add(changes.get(i));
+				}
+			}
+			if (null != matched) {
+				registration.offer(matched);
+			}
+		}
+	}
+
+	private static String namespaceName(String namespace) {
+		return StringUtil.isEmpty(namespace) ? ConfigNamespace.DEFAULT_NAME : namespace;
+	}
+
+	private static void removeByTarget(Object target) {
+		if (null != target) {
+			for (Registration registration : registrationList) {
+				if (registration.target == target) {
+					registrationList.remove(registration);
+				}
+			}
+		}
+	}
+
+	/**
+	 * a listener with its pending changes
+	 */
+	private static class Registration {
+
+		private final String namespace;
+		private final String pattern;
+		private final boolean prefix;
+		private final ConfigListener listener;
+		// object registered by user, used for removal
+		private final Object target;
+		// configName -> coalesced change
+		private final Map<String, ConfigChange> pendingMap = new LinkedHashMap<>();
+		private boolean scheduled;
+
+		Registration(String namespace, String pattern, boolean prefix, ConfigListener listener, Object target) {
+			this.namespace = namespace;
+			this.pattern = pattern;
+			this.prefix = prefix;
+			this.listener = listener;
+			this.target = target;
+		}
+
+		boolean matches(String configName) {
+			return prefix ? configName.startsWith(pattern) : configName.equals(pattern);
+		}
+
+		void offer(List<ConfigChange> changes) {
+			synchronized (this) {
+				for (ConfigChange change : changes) {
+					String configName = change.getConfigName();
+					ConfigChange pending = pendingMap.get(configName);
+					if (null != pending) {
+						change = new ConfigChange(change.getConfigFileName(), change.getKey(), pending.getOldValue(),
+												  change.getNewValue());
+					}
+					pendingMap.put(configName, change);
+				}
+				if (scheduled) {
+					return;
+				}
+				scheduled = true;
+			}
+			long window = windowMillis;
+			if (window > 0L) {
+				timer.schedule(() -> dispatcher.execute(this::flush), window, TimeUnit.MILLISECONDS);
+			} else {
+				dispatcher.execute(this::flush);
+			}
+		}
+
+		/**
+		 * call listener until nothing is pending, only one flush of a registration runs at a time,
+		 * so changes are delivered in order
+		 */
+		void flush() {
+			while (true) {
+				List<ConfigChange> changes = new ArrayList<>();
+				synchronized (this) {
+					if (pendingMap.isEmpty()) {
+						// changes offered from now on schedule a new flush
+						scheduled = false;
+						return;
+					}
+					for (ConfigChange change : pendingMap.values()) {
+						if (!Objects.equals(change.getOldValue(), change.getNewValue())) {
+							changes.add(change);
+						}
+					}
+					pendingMap.clear();
+				}
+				if (!changes.isEmpty() && registrationList.contains(this)) {
+					call(changes);
+				}
+			}
+		}
+
+		private void call(List<ConfigChange> changes) {
+			// never call one listener concurrently, it may be registered for several patterns
+			synchronized (listener) {
+				long startTs = System.nanoTime();
+				try {
+					listener.onChange(changes);
+				} catch (Throwable e) {
+					LOG.error("config listener exception, namespace=" + namespace + ", pattern=" + pattern + ", target=" + target, e);
+				}
+				long cost = System.nanoTime() - startTs;
+				MarsMetrics.CALLBACK_LATENCY.record(cost);
+				LOG.info(StringUtil.concat("config listener called, namespace=", namespace, ", pattern=", pattern, ", changes=", changes.size(), ", cost=",
+										   cost, "ns"));
+			}
+		}
+	}
+}
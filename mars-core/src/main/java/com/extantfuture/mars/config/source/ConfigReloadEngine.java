@@ -0,0 +1,265 @@
+package com.extantfuture.mars.config.source;
+
+import com.extantfuture.mars.config.ConfigChangeSet;
+import com.extantfuture.mars.config.ConfigNamespace;
+import com.extantfuture.mars.config.ConfigSnapshotStore;
+import com.extantfuture.mars.config.listener.ConfigListenerManager;
+import com.extantfuture.mars.metrics.MarsMetrics;
+import com.extantfuture.mars.util.StringUtil;
+import org.apache.log4j.Logger;
+
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * reload engine shared by all config sources
+ * 配置重载引擎，所有配置来源共用
+ * <p>
+ * startup: restore local snapshot, start watching the source, then read all config files from it.
+ * changes delivered before the first read is applied are kept and applied after it, so nothing is lost.
+ * each batch of changes is parsed and published as one snapshot, which refreshes gray rules of changed keys,
+ * then listeners are dispatched and the local snapshot is saved.
+ * config files are published into one namespace, gray rules are compiled from the default namespace only
+ * </p>
+ *
+ * @author Rambo, <rambo@extantfuture.com>
+ * @date 2017/7/3 下午2:15
+ */
+public class ConfigReloadEngine implements ConfigSourceListener {
+
+	private static final Logger LOG = Logger.getLogger(ConfigReloadEngine.class.getSimpleName());
+
+	private final ConfigSource source;
+	// namespace the config files are published into
+	private final ConfigNamespace namespace;
+	// local file to keep the last good snapshot, NULL to disable
+	private final ConfigSnapshotStore snapshotStore;
+	// names of config files loaded from the source
+	private final Set<String> configFileNameSet = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+	// changes delivered before the first read is applied, guarded by this
+	private final List<ConfigUpdate> pendingUpdates = new ArrayList<>();
+	private boolean ready;
+
+	public ConfigReloadEngine(ConfigSource source, ConfigSnapshotStore snapshotStore) {
+		this(source, snapshotStore, ConfigNamespace.getDefault());
+	}
+
+	/**
+	 * @param source
+	 * @param snapshotStore local file to keep the last good snapshot of the namespace, NULL to disable
+	 * @param namespace     namespace the config files are published into
+	 */
+	public ConfigReloadEngine(ConfigSource source, ConfigSnapshotStore snapshotStore, ConfigNamespace namespace) {
+		this.source = Objects.requireNonNull(source, "config source is NULL!");
+		this.snapshotStore = snapshotStore;
+		this.namespace = Objects.requireNonNull(namespace, "config namespace is NULL!");
+	}
+
+	/**
+	 * restore local snapshot, start the source and load all config files from it
+	 * 启动：恢复本地快照，开始监听，并全量读取一次配置
+	 * <p>
+	 * if the source fails but local snapshot is restored, config of local snapshot keeps serving and no exception is thrown
+	 * </p>
+	 *
+	 * @throws Exception if the source fails and nothing is restored from local snapshot
+	 */
+	public void start() throws Exception {
+		long startTs = System.nanoTime();
+		// 先从本地快照恢复配置，不依赖配置来源
+		Set<String> restoredFileNames = restoreLocalSnapshot();
+		long restoreCost = System.nanoTime() - startTs;
+		long fetchTs = System.nanoTime();
+		Map<String, byte[]> files;
+		try {
+			source.start(this);
+			files = source.fetchSnapshot();
+		} catch (Exception e) {
+			if (restoredFileNames.isEmpty()) {
+				throw e;
+			}
+			// keep serving config restored from local snapshot until the source reads all config files again,
+			// which it retries by itself and delivers by onSnapshot
+			LOG.error("start from config source failed, serving local snapshot, source=" + source.getName()
+							  + ", configFileNames=" + restoredFileNames, e);
+			markReady();
+			return;
+		}
+		long fetchCost = System.nanoTime() - fetchTs;
+		long applyTs = System.nanoTime();
+		// live data replaces local snapshot
+		onSnapshot(files);
+		long applyCost = System.nanoTime() - applyTs;
+		// read phase is reading all config files from the source, parse phase is parsing and publishing them
+		LOG.info(StringUtil.concat("start end, source=", source.getName(), ", configFileNames=", configFileNameSet, ", cost=",
+								   System.nanoTime() - startTs, "ns, restoreCost=", restoreCost, "ns, fetchCost=", fetchCost,
+								   "ns, applyCost=", applyCost, "ns"));
+	}
+
+	/**
+	 * stop the source
+	 */
+	public void close() {
+		source.close();
+		LOG.info("close source=" + source.getName());
+	}
+
+	@Override
+	public synchronized void onChange(List<ConfigUpdate> updates) {
+		if (null == updates || updates.isEmpty()) {
+			return;
+		}
+		if (!ready) {
+			pendingUpdates.addAll(updates);
+			return;
+		}
+		apply(updates);
+	}
+
+	@Override
+	public synchronized void onSnapshot(Map<String, byte[]> files) {
+		long startTs = System.nanoTime();
+		Map<String, byte[]> contentMap = new LinkedHashMap<>();
+		if (null != files) {
+			for (Map.Entry<String, byte[]> entry : files.entrySet()) {
+				if (null != entry.getValue()) {
+					contentMap.put(entry.getKey(), entry.getValue());
+				}
+			}
+		}
+		// config files deleted while not watching
+		Set<String> removedFileNames = new HashSet<>(configFileNameSet);
+		removedFileNames.removeAll(contentMap.keySet());
+		ConfigChangeSet changeSet = namespace.reloadConfigBytes(contentMap, removedFileNames);
+		configFileNameSet.removeAll(removedFileNames);
+		configFileNameSet.addAll(contentMap.keySet());
+		long cost = System.nanoTime() - startTs;
+		MarsMetrics.RELOAD_LATENCY.record(cost);
+
+		LOG.info(StringUtil.concat("reload snapshot source=", source.getName(), ", configFileNames=", contentMap.keySet(),
+								   ", removed=", removedFileNames, ", version=", changeSet.getVersion(), ", changes=",
+								   changeSet.getChanges().size(), ", cost=", cost, "ns"));
+
+		handleChangeSet(changeSet, true);
+		markReady();
+	}
+
+	/**
+	 * apply changes kept before ready, and apply changes immediately from now on
+	 */
+	private synchronized void markReady() {
+		if (!ready) {
+			ready = true;
+			if (!pendingUpdates.isEmpty()) {
+				List<ConfigUpdate> updates = new ArrayList<>(pendingUpdates);
+				pendingUpdates.clear();
+				apply(updates);
+			}
+		}
+	}
+
+	/**
+	 * parse changed config files and publish them as one snapshot
+	 *
+	 * @param updates
+	 */
+	private void apply(List<ConfigUpdate> updates) {
+		long startTs = System.nanoTime();
+		// a later update of the same config file wins
+		Map<String, byte[]> contentMap = new LinkedHashMap<>();
+		Set<String> removedFileNames = new HashSet<>();
+		for (ConfigUpdate update : updates) {
+			String configFileName = update.getConfigFileName();
+			if (StringUtil.isEmpty(configFileName)) {
+				continue;
+			}
+			if (update.isDeleted()) {
+				contentMap.remove(configFileName);
+				removedFileNames.add(configFileName);
+			} else {
+				contentMap.put(configFileName, update.getContent());
+				removedFileNames.remove(configFileName);
+			}
+		}
+		ConfigChangeSet changeSet = namespace.reloadConfigBytes(contentMap, removedFileNames);
+		configFileNameSet.removeAll(removedFileNames);
+		configFileNameSet.addAll(contentMap.keySet());
+		long cost = System.nanoTime() - startTs;
+		MarsMetrics.RELOAD_LATENCY.record(cost);
+
+		LOG.info(StringUtil.concat("reload source=", source.getName(), ", configFileNames=", contentMap.keySet(), ", removed=",
+								   removedFileNames, ", version=", changeSet.getVersion(), ", changes=",
+								   changeSet.getChanges().size(), ", cost=", cost, "ns"));
+
+		handleChangeSet(changeSet, true);
+	}
+
+	/**
+	 * restore config from local snapshot file before reading the source
+	 * 从本地快照文件恢复配置
+	 *
+	 * @return names of restored config files
+	 */
+	private Set<String> restoreLocalSnapshot() {
+		long startTs = System.nanoTime();
+		Set<String> restoredFileNames = new HashSet<>();
+		if (null != snapshotStore) {
+			ByteBuffer content = snapshotStore.loadBuffer();
+			if (null != content && content.hasRemaining()) {
+				// config files already loaded, like the ones from classpath, are fresher than the snapshot
+				ConfigChangeSet changeSet = namespace.loadAbsentConfigContent(content);
+				restoredFileNames.addAll(changeSet.getConfigFileNames());
+				// live data replaces them, the ones no longer exist in the source are removed when read
+				configFileNameSet.addAll(restoredFileNames);
+				handleChangeSet(changeSet, false);
+			}
+		}
+		LOG.info(StringUtil.concat("restoreLocalSnapshot source=", source.getName(), ", configFileNames=", restoredFileNames,
+								   ", cost=", System.nanoTime() - startTs, "ns"));
+		return restoredFileNames;
+	}
+
+	/**
+	 * dispatch changes to callbacks and listeners, gray rules are refreshed by the publish
+	 *
+	 * @param changeSet
+	 * @param persist   whether to save local snapshot
+	 */
+	private void handleChangeSet(ConfigChangeSet changeSet, boolean persist) {
+		if (changeSet.isEmpty()) {
+			return;
+		}
+		// callbacks and listeners run on the dispatcher threads, never block the source's thread
+		ConfigListenerManager.dispatch(namespace.getName(), changeSet);
+		if (persist && null != snapshotStore) {
+			try {
+				// only config files of the source, the ones loaded by others are not restored over them
+				snapshotStore.save(namespace.getSnapshot(), configFileNameSet);
+			} catch (Throwable e) {
+				LOG.error("save local snapshot exception, file=" + snapshotStore.getFile(), e);
+			}
+		}
+	}
+
+	public ConfigNamespace getNamespace() {
+		return namespace;
+	}
+
+	public ConfigSource getSource() {
+		return source;
+	}
+
+	public ConfigSourceHealth getHealth() {
+		return source.getHealth();
+	}
+
+	/**
+	 * names of config files loaded from the source
+	 *
+	 * @return
+	 */
+	public Set<String> getConfigFileNames() {
+		return Collections.unmodifiableSet(configFileNameSet);
+	}
+}
@@ -0,0 +1,59 @@
+package com.extantfuture.mars.config.source;
+
+import java.util.Map;
+
+/**
+ * backend which stores config files, like zookeeper, etcd or local directory
+ * 配置来源，如zookeeper、etcd或本地目录
+ * <p>
+ * a source only fetches and watches raw content of config files, parsing, diffing, gray rule refresh,
+ * listener dispatch and local snapshot are done once for all backends by {@link ConfigReloadEngine}
+ * </p>
+ *
+ * @author Rambo, <rambo@extantfuture.com>
+ * @date 2017/7/3 上午11:20
+ */
+public interface ConfigSource {
+
+	/**
+	 * name of the source used in logs, like zookeeper:/mars/moduleName
+	 *
+	 * @return
+	 */
+	String getName();
+
+	/**
+	 * start watching, changes are delivered to the listener from now on
+	 * 开始监听配置变更
+	 *
+	 * @param listener
+	 * @throws Exception
+	 */
+	void start(ConfigSourceListener listener) throws Exception;
+
+	/**
+	 * read content of all config files
+	 * 读取全部配置文件内容
+	 * <p>
+	 * after {@link #start(ConfigSourceListener)}, a failed read is retried by the source itself until it succeeds,
+	 * then delivered by {@link ConfigSourceListener#onSnapshot(Map)}, so that a start with the backend unreachable
+	 * recovers without being started again
+	 * </p>
+	 *
+	 * @return configFileName -> content
+	 * @throws Exception
+	 */
+	Map<String, byte[]> fetchSnapshot() throws Exception;
+
+	/**
+	 * current health of the source
+	 *
+	 * @return
+	 */
+	ConfigSourceHealth getHealth();
+
+	/**
+	 * stop watching and release resources
+	 */
+	void close();
+}
@@ -0,0 +1,65 @@
+package com.extantfuture.mars.config.source;
+
+/**
+ * health of a config source
+ * 配置来源的健康状态
+ *
+ * @author Rambo, <rambo@extantfuture.com>
+ * @date 2017/7/3 上午11:20
+ */
+public final class ConfigSourceHealth {
+
+	/**
+	 * health status
+	 */
+	public enum Status {
+		UP,// connected and watching
+		DEGRADED,// source fails, config loaded before keeps serving
+		DOWN,// not started, closed, or never loaded
+		;
+	}
+
+	private final Status status;
+	private final String message;
+	// time of the status, in milliseconds
+	private final long timestamp;
+
+	public ConfigSourceHealth(Status status, String message) {
+		this.status = status;
+		this.message = message;
+		this.timestamp = System.currentTimeMillis();
+	}
+
+	public static ConfigSourceHealth up() {
+		return new ConfigSourceHealth(Status.UP, null);
+	}
+
+	public static ConfigSourceHealth degraded(String message) {
+		return new ConfigSourceHealth(Status.DEGRADED, message);
+	}
+
+	public static ConfigSourceHealth down(String message) {
+		return new ConfigSourceHealth(Status.DOWN, message);
+	}
+
+	public Status getStatus() {
+		return status;
+	}
+
+	public String getMessage() {
+		return message;
+	}
+
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+	public boolean isUp() {
+		return Status.UP == status;
+	}
+
+	@Override
+	public String toString() {
+		return "ConfigSourceHealth [status=" + status + ", message=" + message + ", timestamp=" + timestamp + "]";
+	}
+}
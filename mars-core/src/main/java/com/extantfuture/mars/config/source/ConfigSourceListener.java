@@ -0,0 +1,29 @@
+package com.extantfuture.mars.config.source;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * receiver of changes from a config source
+ * 配置来源的变更接收者
+ *
+ * @author Rambo, <rambo@extantfuture.com>
+ * @date 2017/7/3 上午11:20
+ */
+public interface ConfigSourceListener {
+
+	/**
+	 * some config files are changed or deleted
+	 *
+	 * @param updates in order of happening, a later update of the same file wins
+	 */
+	void onChange(List<ConfigUpdate> updates);
+
+	/**
+	 * the source read all config files again, like after a reconnect,
+	 * config files not in it are treated as deleted
+	 *
+	 * @param files configFileName -> content
+	 */
+	void onSnapshot(Map<String, byte[]> files);
+}
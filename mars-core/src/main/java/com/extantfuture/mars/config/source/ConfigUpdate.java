@@ -0,0 +1,47 @@
+package com.extantfuture.mars.config.source;
+
+/**
+ * new content of one config file from a config source
+ * 单个配置文件的变更内容
+ *
+ * @author Rambo, <rambo@extantfuture.com>
+ * @date 2017/7/3 上午11:20
+ */
+public final class ConfigUpdate {
+
+	private final String configFileName;
+	// NULL means the config file is deleted
+	private final byte[] content;
+
+	public ConfigUpdate(String configFileName, byte[] content) {
+		this.configFileName = configFileName;
+		this.content = content;
+	}
+
+	/**
+	 * update of a deleted config file
+	 *
+	 * @param configFileName
+	 * @return
+	 */
+	public static ConfigUpdate deleted(String configFileName) {
+		return new ConfigUpdate(configFileName, null);
+	}
+
+	public String getConfigFileName() {
+		return configFileName;
+	}
+
+	public byte[] getContent() {
+		return content;
+	}
+
+	public boolean isDeleted() {
+		return null == content;
+	}
+
+	@Override
+	public String toString() {
+		return "ConfigUpdate [configFileName=" + configFileName + ", length=" + (null == content ? -1 : content.length) + "]";
+	}
+}
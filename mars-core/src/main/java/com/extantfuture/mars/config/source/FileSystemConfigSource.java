@@ -0,0 +1,266 @@
+package com.extantfuture.mars.config.source;
+
+import com.extantfuture.mars.util.StringUtil;
+import org.apache.log4j.Logger;
+
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * config source of a local directory, each regular file in it is a config file
+ * 本地目录配置来源，目录下的每个文件是一个配置文件，适用于本地开发、CI以及kubernetes挂载的配置
+ * <p>
+ * config file name is the file name without extension, like db.conf -> db.
+ * hidden files and editor temp files (*~, *.swp, *.tmp) are ignored.
+ * the directory is watched by {@link WatchService}, events are debounced until the directory is quiet,
+ * then the directory is scanned and only files with changed content are delivered.
+ * scanning instead of trusting event paths also covers atomic renames and kubernetes' ..data symlink swap
+ * </p>
+ *
+ * @author Rambo, <rambo@extantfuture.com>
+ * @date 2017/7/6 上午11:00
+ */
+public class FileSystemConfigSource implements ConfigSource {
+
+	private static final Logger LOG = Logger.getLogger(FileSystemConfigSource.class.getSimpleName());
+	// wait for the directory to be quiet before scanning
+	private static final long DEFAULT_DEBOUNCE_MILLIS = 200L;
+
+	private final Path directory;
+	private final long debounceMillis;
+	// configFileName -> content of the last scan, guarded by this
+	private final Map<String, byte[]> fileMap = new HashMap<>();
+	private volatile ConfigSourceListener listener;
+	private volatile ConfigSourceHealth health = ConfigSourceHealth.down("not started");
+	private volatile boolean running;
+	private WatchService watchService;
+	private Thread watchThread;
+
+	public FileSystemConfigSource(Path directory) {
+		this(directory, DEFAULT_DEBOUNCE_MILLIS);
+	}
+
+	/**
+	 * @param directory
+	 * @param debounceMillis wait for the directory to be quiet for this long before scanning
+	 */
+	public FileSystemConfigSource(Path directory, long debounceMillis) {
+		this.directory = Objects.requireNonNull(directory, "config directory is NULL!").toAbsolutePath();
+		this.debounceMillis = debounceMillis;
+	}
+
+	@Override
+	public String getName() {
+		return "file:" + directory;
+	}
+
+	@Override
+	public synchronized void start(ConfigSourceListener listener) throws IOException {
+		if (running) {
+			throw new IllegalStateException("FileSystemConfigSource is already started, directory=" + directory);
+		}
+		this.listener = listener;
+		watchService = directory.getFileSystem().newWatchService();
+		directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY,
+						   StandardWatchEventKinds.ENTRY_DELETE);
+		running = true;
+		watchThread = new Thread(this::watchLoop, "mars-file-watcher");
+		watchThread.setDaemon(true);
+		watchThread.start();
+	}
+
+	/**
+	 * read all config files in the directory
+	 * 读取目录下的全部配置文件
+	 *
+	 * @return configFileName -> content
+	 */
+	@Override
+	public synchronized Map<String, byte[]> fetchSnapshot() throws IOException {
+		try {
+			Map<String, byte[]> contentMap = readDirectory();
+			fileMap.clear();
+			fileMap.putAll(contentMap);
+			health = ConfigSourceHealth.up();
+			return new HashMap<>(contentMap);
+		} catch (IOException e) {
+			health = ConfigSourceHealth.degraded("read directory exception: " + e);
+			throw e;
+		}
+	}
+
+	/**
+	 * scan the directory and deliver config files changed since the last scan
+	 */
+	private void rescan() {
+		long startTs = System.nanoTime();
+		List<ConfigUpdate> updates = new ArrayList<>();
+		synchronized (this) {
+			Map<String, byte[]> contentMap;
+			try {
+				contentMap = readDirectory();
+			} catch (IOException e) {
+				health = ConfigSourceHealth.degraded("read directory exception: " + e);
+				LOG.error("scan config directory exception, directory=" + directory, e);
+				return;
+			}
+			for (Map.Entry<String, byte[]> entry : contentMap.entrySet()) {
+				if (!Arrays.equals(entry.getValue(), fileMap.get(entry.getKey()))) {
+					updates.add(new ConfigUpdate(entry.getKey(), entry.getValue()));
+				}
+			}
+			for (String configFileName : fileMap.keySet()) {
+				if (!contentMap.containsKey(configFileName)) {
+					updates.add(ConfigUpdate.deleted(configFileName));
+				}
+			}
+			fileMap.clear();
+			fileMap.putAll(contentMap);
+			health = ConfigSourceHealth.up();
+		}
+		LOG.info(StringUtil.concat("scan config directory=", directory, ", updates=", updates, ", cost=",
+								   System.nanoTime() - startTs, "ns"));
+		ConfigSourceListener current = listener;
+		if (null != current && !updates.isEmpty()) {
+			current.onChange(updates);
+		}
+	}
+
+	/**
+	 * wait for events of the directory, debounce them and scan
+	 * 监听目录变更，合并一段时间内的连续事件后扫描一次
+	 */
+	private void watchLoop() {
+		WatchService service = watchService;
+		while (running) {
+			try {
+				WatchKey key = service.take();
+				key.pollEvents();
+				key.reset();
+				// editors and atomic renames produce bursts of events, wait until the directory is quiet
+				WatchKey next;
+				while (null != (next = service.poll(debounceMillis, TimeUnit.MILLISECONDS))) {
+					next.pollEvents();
+					next.reset();
+				}
+				rescan();
+				if (!key.isValid()) {
+					health = ConfigSourceHealth.degraded("config directory is not accessible");
+					LOG.error("config directory is not accessible, stop watching, directory=" + directory);
+					break;
+				}
+			} catch (InterruptedException | ClosedWatchServiceException e) {
+				break;
+			} catch (Throwable e) {
+				LOG.error("watch config directory exception, directory=" + directory, e);
+			}
+		}
+		LOG.info("watch loop end, directory=" + directory);
+	}
+
+	/**
+	 * read all config files in the directory
+	 *
+	 * @return configFileName -> content
+	 * @throws IOException
+	 */
+	private Map<String, byte[]> readDirectory() throws IOException {
+		Map<String, byte[]> contentMap = new HashMap<>();
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+			for (Path path : stream) {
+				String fileName = path.getFileName().toString();
+				if (isIgnored(fileName) || !Files.isRegularFile(path)) {
+					continue;
+				}
+				try {
+					contentMap.put(getConfigFileName(fileName), readFile(path));
+				} catch (NoSuchFileException e) {
+					// deleted while scanning
+				}
+			}
+		}
+		return contentMap;
+	}
+
+	/**
+	 * read the whole file through file channel
+	 *
+	 * @param path
+	 * @return
+	 * @throws IOException
+	 */
+	private static byte[] readFile(Path path) throws IOException {
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			long size = channel.size();
+			if (size > Integer.MAX_VALUE) {
+				throw new IOException("config file is too large, path=" + path + ", size=" + size);
+			}
+			ByteBuffer buffer = ByteBuffer.allocate((int) size);
+			while (buffer.hasRemaining()) {
+				if (channel.read(buffer) < 0) {
+					// truncated while reading
+					break;
+				}
+			}
+			// cast to Buffer, ByteBuffer.flip() does not exist on java 8
+			((Buffer) buffer).flip();
+			byte[] content = new byte[buffer.remaining()];
+			buffer.get(content);
+			return content;
+		}
+	}
+
+	/**
+	 * hidden files and editor temp files
+	 *
+	 * @param fileName
+	 * @return
+	 */
+	private static boolean isIgnored(String fileName) {
+		return fileName.startsWith(".") || fileName.endsWith("~") || fileName.endsWith(".swp") || fileName.endsWith(".tmp");
+	}
+
+	/**
+	 * file name without extension
+	 *
+	 * @param fileName
+	 * @return
+	 */
+	private static String getConfigFileName(String fileName) {
+		int index = fileName.lastIndexOf('.');
+		return index > 0 ? fileName.substring(0, index) : fileName;
+	}
+
+	@Override
+	public ConfigSourceHealth getHealth() {
+		return health;
+	}
+
+	@Override
+	public synchronized void close() {
+		running = false;
+		listener = null;
+		if (null != watchThread) {
+			watchThread.interrupt();
+			watchThread = null;
+		}
+		if (null != watchService) {
+			try {
+				watchService.close();
+			} catch (IOException e) {
+				LOG.error("close watch service exception, directory=" + directory, e);
+			}
+			watchService = null;
+		}
+		health = ConfigSourceHealth.down("closed");
+	}
+
+	public Path getDirectory() {
+		return directory;
+	}
+}
@@ -0,0 +1,93 @@
+package com.extantfuture.mars.config.source;
+
+import com.extantfuture.mars.util.StringUtil;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * config source kept in memory, changes are delivered on the caller's thread
+ * 内存配置来源，用于测试和压测，无需外部服务
+ *
+ * @author Rambo, <rambo@extantfuture.com>
+ * @date 2017/7/3 下午4:05
+ */
+public class InMemoryConfigSource implements ConfigSource {
+
+	private final String name;
+	// configFileName -> content
+	private final Map<String, byte[]> fileMap = new ConcurrentHashMap<>();
+	private volatile ConfigSourceListener listener;
+
+	public InMemoryConfigSource(String name) {
+		this.name = name;
+	}
+
+	/**
+	 * add or update a config file
+	 *
+	 * @param configFileName
+	 * @param content
+	 */
+	public void put(String configFileName, String content) {
+		putAll(Collections.singletonMap(configFileName, content));
+	}
+
+	/**
+	 * add or update several config files, delivered as one batch
+	 *
+	 * @param contentMap configFileName -> content
+	 */
+	public void putAll(Map<String, String> contentMap) {
+		List<ConfigUpdate> updates = new ArrayList<>(contentMap.size());
+		for (Map.Entry<String, String> entry : contentMap.entrySet()) {
+			byte[] content = StringUtil.getUTF8Bytes(null == entry.getValue() ? "" : entry.getValue());
+			fileMap.put(entry.getKey(), content);
+			updates.add(new ConfigUpdate(entry.getKey(), content));
+		}
+		notify(updates);
+	}
+
+	/**
+	 * delete a config file
+	 *
+	 * @param configFileName
+	 */
+	public void remove(String configFileName) {
+		if (null != fileMap.remove(configFileName)) {
+			notify(Collections.singletonList(ConfigUpdate.deleted(configFileName)));
+		}
+	}
+
+	private void notify(List<ConfigUpdate> updates) {
+		ConfigSourceListener current = listener;
+		if (null != current && !updates.isEmpty()) {
+			current.onChange(updates);
+		}
+	}
+
+	@Override
+	public String getName() {
+		return "memory:" + name;
+	}
+
+	@Override
+	public void start(ConfigSourceListener listener) {
+		this.listener = listener;
+	}
+
+	@Override
+	public Map<String, byte[]> fetchSnapshot() {
+		return new HashMap<>(fileMap);
+	}
+
+	@Override
+	public ConfigSourceHealth getHealth() {
+		return null == listener ? ConfigSourceHealth.down("not started") : ConfigSourceHealth.up();
+	}
+
+	@Override
+	public void close() {
+		listener = null;
+	}
+}
@@ -0,0 +1,82 @@
+package com.extantfuture.mars.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * counter of hits and misses, striped by {@link LongAdder} so that request threads do not contend
+ * 命中/未命中计数器
+ * <p>
+ * for config lookups a miss means the config item does not exist and the default is used,
+ * for gray rules a hit means allowed and a miss means denied,
+ * for config sources a hit means a changed config file is applied and a miss means it is skipped as unchanged
+ * </p>
+ *
+ * @author Rambo, <rambo@extantfuture.com>
+ * @date 2017/7/12 上午10:20
+ */
+public final class HitCounter {
+
+	private final String name;
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+
+	HitCounter(String name) {
+		this.name = name;
+	}
+
+	public void hit() {
+		if (MarsMetrics.isEnabled()) {
+			hits.increment();
+		}
+	}
+
+	public void miss() {
+		if (MarsMetrics.isEnabled()) {
+			misses.increment();
+		}
+	}
+
+	/**
+	 * count as hit if true, otherwise miss
+	 *
+	 * @param hit
+	 */
+	public void record(boolean hit) {
+		if (MarsMetrics.isEnabled()) {
+			(hit ? hits : misses).increment();
+		}
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public long getHits() {
+		return hits.sum();
+	}
+
+	public long getMisses() {
+		return misses.sum();
+	}
+
+	/**
+	 * hits / (hits + misses)
+	 *
+	 * @return 0 if nothing counted
+	 */
+	public double getHitRatio() {
+		long hitCount = hits.sum();
+		long total = hitCount + misses.sum();
+		return 0L == total ? 0D : (double) hitCount / total;
+	}
+
+	void reset() {
+		hits.reset();
+		misses.reset();
+	}
+
+	@Override
+	public String toString() {
+		return "HitCounter [name=" + name + ", hits=" + getHits() + ", misses=" + getMisses() + "]";
+	}
+}
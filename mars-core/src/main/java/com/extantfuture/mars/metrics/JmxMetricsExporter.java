@@ -0,0 +1,116 @@
+package com.extantfuture.mars.metrics;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * export {@link MarsMetrics} as one JMX MBean, each metric is a read only attribute
+ * 通过JMX导出监控指标
+ * <p>
+ * attributes are read from the live counters on each JMX request, new config files and gray keys show up
+ * when the MBean info is read again, operation reset clears all counted values
+ * </p>
+ *
+ * @author Rambo, <rambo@extantfuture.com>
+ * @date 2017/7/12 上午10:20
+ */
+public class JmxMetricsExporter implements MetricsExporter, DynamicMBean {
+
+	public static final String DEFAULT_OBJECT_NAME = "com.extantfuture.mars:type=Metrics";
+	private static final String RESET = "reset";
+
+	private final ObjectName objectName;
+	private final MBeanServer mBeanServer;
+
+	public JmxMetricsExporter() throws Exception {
+		this(new ObjectName(DEFAULT_OBJECT_NAME), ManagementFactory.getPlatformMBeanServer());
+	}
+
+	public JmxMetricsExporter(ObjectName objectName, MBeanServer mBeanServer) {
+		this.objectName = objectName;
+		this.mBeanServer = mBeanServer;
+	}
+
+	@Override
+	public String getName() {
+		return "jmx:" + objectName;
+	}
+
+	@Override
+	public void start() throws Exception {
+		mBeanServer.registerMBean(this, objectName);
+	}
+
+	@Override
+	public void stop() throws Exception {
+		if (mBeanServer.isRegistered(objectName)) {
+			mBeanServer.unregisterMBean(objectName);
+		}
+	}
+
+	@Override
+	public Object getAttribute(String attribute) throws AttributeNotFoundException {
+		Number value = MarsMetrics.snapshot().get(attribute);
+		if (null == value) {
+			throw new AttributeNotFoundException(attribute);
+		}
+		return value;
+	}
+
+	@Override
+	public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+		throw new AttributeNotFoundException("read only attribute " + attribute.getName());
+	}
+
+	@Override
+	public AttributeList getAttributes(String[] attributes) {
+		Map<String, Number> metrics = MarsMetrics.snapshot();
+		AttributeList list = new AttributeList();
+		for (String attribute : attributes) {
+			Number value = metrics.get(attribute);
+			if (null != value) {
+				list.add(new Attribute(attribute, value));
+			}
+		}
+		return list;
+	}
+
+	@Override
+	public AttributeList setAttributes(AttributeList attributes) {
+		return new AttributeList();
+	}
+
+	@Override
+	public Object invoke(String actionName, Object[] params, String[] signature) throws ReflectionException {
+		if (RESET.equals(actionName)) {
+			MarsMetrics.reset();
+			return null;
+		}
+		throw new ReflectionException(new NoSuchMethodException(actionName));
+	}
+
+	@Override
+	public MBeanInfo getMBeanInfo() {
+		List<MBeanAttributeInfo> attributeList = new ArrayList<MBeanAttributeInfo>();
+		for (Map.Entry<String, Number> entry : MarsMetrics.snapshot().entrySet()) {
+			attributeList.add(new MBeanAttributeInfo(entry.getKey(), entry.getValue().getClass().getName(), entry.getKey(),
+													 true, false, false));
+		}
+		MBeanOperationInfo reset = new MBeanOperationInfo(RESET, "clear all counted values", null, "void",
+														  MBeanOperationInfo.ACTION);
+		return new MBeanInfo(getClass().getName(), "Mars config metrics",
+							 attributeList.toArray(new MBeanAttributeInfo[0]), null, new MBeanOperationInfo[]{reset}, null);
+	}
+}
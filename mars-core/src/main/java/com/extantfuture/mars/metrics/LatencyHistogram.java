@@ -0,0 +1,135 @@
+package com.extantfuture.mars.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * latency histogram in nanoseconds with log-linear buckets like HdrHistogram
+ * 延迟直方图，单位纳秒
+ * <p>
+ * values below 16 have their own buckets, larger values are bucketed by power of two and 16 linear sub buckets,
+ * so any recorded value is reported within 1/16 (6.25%) of relative error, with fixed memory and no allocation
+ * </p>
+ *
+ * @author Rambo, <rambo@extantfuture.com>
+ * @date 2017/7/12 上午10:20
+ */
+public final class LatencyHistogram {
+
+	// sub buckets per power of two, 2^4
+	private static final int SUB_BUCKET_BITS = 4;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	// enough for any positive long
+	private static final int BUCKETS = (64 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+	private final String name;
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong sum = new AtomicLong();
+	private final AtomicLong max = new AtomicLong();
+
+	LatencyHistogram(String name) {
+		this.name = name;
+	}
+
+	/**
+	 * record a latency
+	 *
+	 * @param nanos negative is counted as 0
+	 */
+	public void record(long nanos) {
+		if (!MarsMetrics.isEnabled()) {
+			return;
+		}
+		long value = Math.max(0L, nanos);
+		counts.incrementAndGet(bucketIndex(value));
+		count.incrementAndGet();
+		sum.addAndGet(value);
+		long current = max.get();
+		while (value > current && !max.compareAndSet(current, value)) {
+			current = max.get();
+		}
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public long getCount() {
+		return count.get();
+	}
+
+	public long getMax() {
+		return max.get();
+	}
+
+	/**
+	 * @return 0 if nothing recorded
+	 */
+	public double getMean() {
+		long total = count.get();
+		return 0L == total ? 0D : (double) sum.get() / total;
+	}
+
+	/**
+	 * value at percentile, the highest value of the bucket the percentile falls in
+	 * 分位值
+	 *
+	 * @param percentile 0 to 100, like 99.9
+	 * @return 0 if nothing recorded
+	 */
+	public long getValueAtPercentile(double percentile) {
+		long total = 0L;
+		for (int i = 0; i < BUCKETS; i++) {
+			total += counts.get(i);
+		}
+		if (0L == total) {
+			return 0L;
+		}
+		long rank = Math.max(1L, (long) Math.ceil(Math.min(100D, Math.max(0D, percentile)) / 100D * total));
+		long seen = 0L;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += counts.get(i);
+			if (seen >= rank) {
+				return Math.min(highestValue(i), max.get());
+			}
+		}
+		return max.get();
+	}
+
+	void reset() {
+		for (int i = 0; i < BUCKETS; i++) {
+			counts.set(i, 0L);
+		}
+		count.set(0L);
+		sum.set(0L);
+		max.set(0L);
+	}
+
+	static int bucketIndex(long value) {
+		if (value < SUB_BUCKETS) {
+			return (int) value;
+		}
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		int sub = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+		return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + sub;
+	}
+
+	static long highestValue(int index) {
+		if (index < SUB_BUCKETS) {
+			return index;
+		}
+		int exponent = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+		int sub = index % SUB_BUCKETS;
+		long lowest = (long) (SUB_BUCKETS + sub) << (exponent - SUB_BUCKET_BITS);
+		long width = 1L << (exponent - SUB_BUCKET_BITS);
+		// the last bucket of long would overflow
+		return lowest + width - 1 < lowest ? Long.MAX_VALUE : lowest + width - 1;
+	}
+
+	@Override
+	public String toString() {
+		return "LatencyHistogram [name=" + name + ", count=" + getCount() + ", mean=" + getMean() + ", p99="
+				+ getValueAtPercentile(99D) + ", max=" + getMax() + "]";
+	}
+}
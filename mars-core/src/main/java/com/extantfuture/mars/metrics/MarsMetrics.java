@@ -0,0 +1,268 @@
+package com.extantfuture.mars.metrics;
+
+import org.apache.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * metrics of config lookups, gray evaluations and reloads
+ * 配置查询、灰度判断和配置重载的监控指标
+ * <p>
+ * counters and histograms are updated on the hot path without lock or allocation,
+ * {@link #snapshot()} flattens them into name -> value for {@link MetricsExporter}s, names like:
+ * <pre>
+ * config.{configFileName}.hit / miss	config lookups found / not found (default used)
+ * config.{namespace}/{configFileName}.hit / miss	config lookups of other namespaces than the default one
+ * gray.{configKey}.allow / deny	gray evaluations
+ * source.{sourceName}.apply / skip	changed config files applied / skipped as unchanged by a config source
+ * {histogram}.count / mean / p50 / p99 / p999 / max	latency in nanoseconds of reload, callback and gray.compile
+ * </pre>
+ * disabled by jvm property ef_conf_metrics=false
+ * </p>
+ *
+ * @author Rambo, <rambo@extantfuture.com>
+ * @date 2017/7/12 上午10:20
+ */
+public class MarsMetrics {
+
+	private static final Logger LOG = Logger.getLogger(MarsMetrics.class.getSimpleName());
+	// names of counters are limited, the rest are counted together
+	private static final int MAX_COUNTERS = 4096;
+	private static final String OTHERS = "_others";
+
+	private static volatile boolean enabled = !"false".equals(System.getProperty("ef_conf_metrics"));
+	// configFileName -> lookups
+	private static final Map<String, HitCounter> configCounterMap = new ConcurrentHashMap<String, HitCounter>();
+	// namespace -> (configFileName -> lookups) of namespaces other than the default one
+	private static final Map<String, Map<String, HitCounter>> namespaceCounterMap = new ConcurrentHashMap<String, Map<String, HitCounter>>();
+	// configKey -> gray evaluations
+	private static final Map<String, HitCounter> grayCounterMap = new ConcurrentHashMap<String, HitCounter>();
+	// source name -> changed config files applied or skipped
+	private static final Map<String, HitCounter> sourceCounterMap = new ConcurrentHashMap<String, HitCounter>();
+	private static final Map<String, LatencyHistogram> histogramMap = new ConcurrentHashMap<String, LatencyHistogram>();
+	private static final List<MetricsExporter> exporterList = new CopyOnWriteArrayList<MetricsExporter>();
+
+	/**
+	 * latency of parsing and publishing changed config files from a config source
+	 */
+	public static final LatencyHistogram RELOAD_LATENCY = histogram("reload");
+	/**
+	 * latency of each call of config listeners and callbacks
+	 */
+	public static final LatencyHistogram CALLBACK_LATENCY = histogram("callback");
+	/**
+	 * latency of compiling a gray rule
+	 */
+	public static final LatencyHistogram GRAY_COMPILE_LATENCY = histogram("gray.compile");
+
+	public static boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * enable or disable recording, counted values are kept
+	 *
+	 * @param enabled
+	 */
+	public static void setEnabled(boolean enabled) {
+		MarsMetrics.enabled = enabled;
+	}
+
+	/**
+	 * counter of config lookups in a config file
+	 * 配置文件的查询计数
+	 *
+	 * @param configFileName
+	 * @return
+	 */
+	public static HitCounter configCounter(String configFileName) {
+		return counter(configCounterMap, configFileName);
+	}
+
+	/**
+	 * counter of config lookups in a config file of a namespace
+	 * 命名空间中配置文件的查询计数
+	 *
+	 * @param namespace
+	 * @param configFileName
+	 * @return
+	 */
+	public static HitCounter configCounter(String namespace, String configFileName) {
+		Map<String, HitCounter> counterMap = namespaceCounterMap.get(namespace);
+		if (null == counterMap) {
+			counterMap = namespaceCounterMap.computeIfAbsent(namespace, n -> new ConcurrentHashMap<String, HitCounter>());
+		}
+		return counter(counterMap, configFileName);
+	}
+
+	/**
+	 * counter of gray evaluations of a config item, hit means allowed
+	 * 灰度规则的判断计数
+	 *
+	 * @param configKey
+	 * @return
+	 */
+	public static HitCounter grayCounter(String configKey) {
+		return counter(grayCounterMap, configKey);
+	}
+
+	/**
+	 * counter of change events of a config source, hit means the config file is applied,
+	 * miss means it is skipped because its version or content is unchanged
+	 * 配置来源的变更计数，命中表示重新加载，未命中表示内容未变而跳过
+	 *
+	 * @param sourceName
+	 * @return
+	 */
+	public static HitCounter sourceCounter(String sourceName) {
+		return counter(sourceCounterMap, sourceName);
+	}
+
+	/**
+	 * histogram by name, created if absent
+	 *
+	 * @param name
+	 * @return
+	 */
+	public static LatencyHistogram histogram(String name) {
+		LatencyHistogram histogram = histogramMap.get(name);
+		if (null == histogram) {
+			histogram = histogramMap.computeIfAbsent(name, LatencyHistogram::new);
+		}
+		return histogram;
+	}
+
+	public static Collection<HitCounter> getConfigCounters() {
+		return Collections.unmodifiableCollection(configCounterMap.values());
+	}
+
+	public static Collection<HitCounter> getGrayCounters() {
+		return Collections.unmodifiableCollection(grayCounterMap.values());
+	}
+
+	public static Collection<HitCounter> getSourceCounters() {
+		return Collections.unmodifiableCollection(sourceCounterMap.values());
+	}
+
+	public static Collection<LatencyHistogram> getHistograms() {
+		return Collections.unmodifiableCollection(histogramMap.values());
+	}
+
+	/**
+	 * all metrics flattened into name -> value, sorted by name
+	 * 所有指标的当前值
+	 *
+	 * @return
+	 */
+	public static Map<String, Number> snapshot() {
+		Map<String, Number> metrics = new LinkedHashMap<String, Number>();
+		for (HitCounter counter : new TreeMap<String, HitCounter>(configCounterMap).values()) {
+			metrics.put("config." + counter.getName() + ".hit", counter.getHits());
+			metrics.put("config." + counter.getName() + ".miss", counter.getMisses());
+		}
+		for (Map.Entry<String, Map<String, HitCounter>> entry : new TreeMap<String, Map<String, HitCounter>>(
+				namespaceCounterMap).entrySet()) {
+			for (HitCounter counter : new TreeMap<String, HitCounter>(entry.getValue()).values()) {
+				String name = entry.getKey() + "/" + counter.getName();
+				metrics.put("config." + name + ".hit", counter.getHits());
+				metrics.put("config." + name + ".miss", counter.getMisses());
+			}
+		}
+		for (HitCounter counter : new TreeMap<String, HitCounter>(grayCounterMap).values()) {
+			metrics.put("gray." + counter.getName() + ".allow", counter.getHits());
+			metrics.put("gray." + counter.getName() + ".deny", counter.getMisses());
+		}
+		for (HitCounter counter : new TreeMap<String, HitCounter>(sourceCounterMap).values()) {
+			metrics.put("source." + counter.getName() + ".apply", counter.getHits());
+			metrics.put("source." + counter.getName() + ".skip", counter.getMisses());
+		}
+		for (LatencyHistogram histogram : new TreeMap<String, LatencyHistogram>(histogramMap).values()) {
+			String name = histogram.getName();
+			metrics.put(name + ".count", histogram.getCount());
+			metrics.put(name + ".mean", histogram.getMean());
+			metrics.put(name + ".p50", histogram.getValueAtPercentile(50D));
+			metrics.put(name + ".p99", histogram.getValueAtPercentile(99D));
+			metrics.put(name + ".p999", histogram.getValueAtPercentile(99.9D));
+			metrics.put(name + ".max", histogram.getMax());
+		}
+		return metrics;
+	}
+
+	/**
+	 * clear all counted values
+	 * 清零
+	 */
+	public static void reset() {
+		for (HitCounter counter : configCounterMap.values()) {
+			counter.reset();
+		}
+		for (Map<String, HitCounter> counterMap : namespaceCounterMap.values()) {
+			for (HitCounter counter : counterMap.values()) {
+				counter.reset();
+			}
+		}
+		for (HitCounter counter : grayCounterMap.values()) {
+			counter.reset();
+		}
+		for (HitCounter counter : sourceCounterMap.values()) {
+			counter.reset();
+		}
+		for (LatencyHistogram histogram : histogramMap.values()) {
+			histogram.reset();
+		}
+	}
+
+	/**
+	 * start exporter and keep it until removed
+	 * 添加并启动指标导出
+	 *
+	 * @param exporter
+	 * @throws Exception if exporter fails to start
+	 */
+	public static void addExporter(MetricsExporter exporter) throws Exception {
+		if (null != exporter && !exporterList.contains(exporter)) {
+			exporter.start();
+			exporterList.add(exporter);
+			LOG.info("add metrics exporter " + exporter.getName());
+		}
+	}
+
+	/**
+	 * stop and remove exporter
+	 * 停止并移除指标导出
+	 *
+	 * @param exporter
+	 */
+	public static void removeExporter(MetricsExporter exporter) {
+		if (null != exporter && exporterList.remove(exporter)) {
+			try {
+				exporter.stop();
+			} catch (Exception e) {
+				LOG.error("stop metrics exporter exception, exporter=" + exporter.getName(), e);
+			}
+			LOG.info("remove metrics exporter " + exporter.getName());
+		}
+	}
+
+	public static List<MetricsExporter> getExporters() {
+		return new ArrayList<MetricsExporter>(exporterList);
+	}
+
+	private static HitCounter counter(Map<String, HitCounter> counterMap, String name) {
+		HitCounter counter = counterMap.get(name);
+		if (null == counter) {
+			// names come from code, but never let a bad caller grow it without limit
+			String counterName = counterMap.size() < MAX_COUNTERS ? name : OTHERS;
+			counter = counterMap.computeIfAbsent(counterName, HitCounter::new);
+		}
+		return counter;
+	}
+}
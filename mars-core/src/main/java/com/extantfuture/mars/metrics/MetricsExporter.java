@@ -0,0 +1,36 @@
+package com.extantfuture.mars.metrics;
+
+/**
+ * exporter of {@link MarsMetrics}, like JMX or a monitoring agent
+ * 监控指标导出接口
+ * <p>
+ * an exporter reads {@link MarsMetrics#snapshot()} or the counters and histograms when needed,
+ * recording never calls exporters
+ * </p>
+ *
+ * @author Rambo, <rambo@extantfuture.com>
+ * @date 2017/7/12 上午10:20
+ */
+public interface MetricsExporter {
+
+	/**
+	 * name for logs
+	 *
+	 * @return
+	 */
+	String getName();
+
+	/**
+	 * start exporting, called by {@link MarsMetrics#addExporter(MetricsExporter)}
+	 *
+	 * @throws Exception
+	 */
+	void start() throws Exception;
+
+	/**
+	 * stop exporting, called by {@link MarsMetrics#removeExporter(MetricsExporter)}
+	 *
+	 * @throws Exception
+	 */
+	void stop() throws Exception;
+}
@@ -21,6 +21,34 @@ public class EnvUtil {
 		return Env.parse(env);
 	}
 
+	/**
+	 * choose server address of config source by current deploy environment
+	 * 根据部署环境选择配置中心地址
+	 *
+	 * @param formalAddress
+	 * @param previewAddress
+	 * @param devAddress
+	 * @return NULL if deploy environment is not specified
+	 */
+	public static String getAddress(String formalAddress, String previewAddress, String devAddress) {
+		String address = null;
+		Env env = getEnv();
+		if (null != env) {
+			switch (env) {
+				case PRODUCTION:
+					address = formalAddress;
+					break;
+				case PREVIEW:
+					address = previewAddress;
+					break;
+				case DEV:
+					address = devAddress;
+					break;
+			}
+		}
+		return address;
+	}
+
 	/**
 	 * deploy environment
 	 * 部署环境
@@ -39,7 +67,7 @@ public class EnvUtil {
 
 		public static Env parse(String value) {
 			for (Env env : values()) {
-				if (env.equals(value)) {
+				if (env.value.equals(value)) {
 					return env;
 				}
 			}
@@ -0,0 +1,264 @@
+package com.extantfuture.mars.etcd;
+
+import com.extantfuture.mars.config.source.ConfigSource;
+import com.extantfuture.mars.config.source.ConfigSourceHealth;
+import com.extantfuture.mars.config.source.ConfigSourceListener;
+import com.extantfuture.mars.config.source.ConfigUpdate;
+import com.extantfuture.mars.util.CollectionUtil;
+import com.extantfuture.mars.util.StringUtil;
+import mousio.etcd4j.EtcdClient;
+import mousio.etcd4j.responses.EtcdAuthenticationException;
+import mousio.etcd4j.responses.EtcdErrorCode;
+import mousio.etcd4j.responses.EtcdException;
+import mousio.etcd4j.responses.EtcdKeyAction;
+import mousio.etcd4j.responses.EtcdKeysResponse;
+import org.apache.log4j.Logger;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * config source of a module's directory in ETCD, each key under it is a config file
+ * ETCD配置来源，模块目录下的每个key是一个配置文件
+ * <p>
+ * the whole directory is watched by one recursive watch,
+ * the watch resumes from the last seen modifiedIndex after reconnect, so nothing is missed and nothing is re-read,
+ * only when etcd has cleared the index the directory is read again and delivered as a snapshot
+ * </p>
+ *
+ * @author Rambo, <rambo@extantfuture.com>
+ * @date 2017/7/4 下午3:30
+ */
+public class EtcdConfigSource implements ConfigSource {
+
+	private static final Logger log = Logger.getLogger(EtcdConfigSource.class.getSimpleName());
+	private static final String PATH_SEP = "/";
+	// long polling timeout of a watch request, re-issued with the same index when timeout
+	private static final long WATCH_TIMEOUT_SECONDS = 60L;
+	// timeout of a read request
+	private static final long READ_TIMEOUT_SECONDS = 10L;
+	// max wait before retry after watch failure
+	private static final long MAX_RETRY_DELAY_MILLIS = 30000L;
+
+	// module's directory
+	private final String rootPath;
+	private final URI[] endpoints;
+	// client of ETCD
+	private EtcdClient etcdClient;
+	// next etcd index to watch from, 0 means the directory has to be read again
+	private volatile long nextWatchIndex;
+	private volatile boolean running;
+	private volatile ConfigSourceListener listener;
+	private volatile ConfigSourceHealth health = ConfigSourceHealth.down("not started");
+	// the watch thread starts after the first read is tried, so the directory is not read twice at startup
+	private final CountDownLatch firstFetchLatch = new CountDownLatch(1);
+	private Thread watchThread;
+
+	public EtcdConfigSource(String rootPath, URI... endpoints) {
+		this.rootPath = rootPath;
+		this.endpoints = endpoints;
+	}
+
+	@Override
+	public String getName() {
+		return "etcd:" + rootPath;
+	}
+
+	@Override
+	public synchronized void start(ConfigSourceListener listener) {
+		if (running) {
+			throw new IllegalStateException("EtcdConfigSource is already started, rootPath=" + rootPath);
+		}
+		this.listener = listener;
+		etcdClient = new EtcdClient(endpoints);
+		running = true;
+		watchThread = new Thread(this::watchLoop, "mars-etcd-watcher");
+		watchThread.setDaemon(true);
+		watchThread.start();
+	}
+
+	/**
+	 * read all config files under module's directory
+	 * 读取模块目录下的全部配置文件
+	 *
+	 * @return configFileName -> content
+	 */
+	@Override
+	public Map<String, byte[]> fetchSnapshot() throws IOException, EtcdException, EtcdAuthenticationException, TimeoutException {
+		long startTs = System.nanoTime();
+		try {
+			EtcdKeysResponse response = etcdClient.getDir(rootPath).recursive().timeout(READ_TIMEOUT_SECONDS, TimeUnit.SECONDS)
+					.send().get();
+			Map<String, byte[]> contentMap = new LinkedHashMap<>();
+			if (null != response.node && CollectionUtil.isNotEmpty(response.node.nodes)) {
+				for (EtcdKeysResponse.EtcdNode node : response.node.nodes) {
+					if (!node.dir && null != node.value) {
+						contentMap.put(getConfigFileName(node.key), StringUtil.getUTF8Bytes(node.value));
+					}
+				}
+			}
+			// X-Etcd-Index is the index of the store when read, watch events after it
+			long etcdIndex = null != response.etcdIndex ? response.etcdIndex : maxModifiedIndex(response.node);
+			nextWatchIndex = etcdIndex + 1;
+			health = ConfigSourceHealth.up();
+			return contentMap;
+		} catch (IOException | EtcdException | EtcdAuthenticationException | TimeoutException e) {
+			health = ConfigSourceHealth.degraded("fetch exception: " + e);
+			throw e;
+		} finally {
+			firstFetchLatch.countDown();
+			log.info(StringUtil.concat("fetchSnapshot rootPath=", rootPath, ", nextWatchIndex=", nextWatchIndex, ", cost=",
+									   System.nanoTime() - startTs, "ns"));
+		}
+	}
+
+	/**
+	 * watch module's directory recursively, resume from the last seen index after failure
+	 * 递归监听模块目录，失败后从最后一次看到的index继续监听
+	 */
+	private void watchLoop() {
+		try {
+			firstFetchLatch.await();
+		} catch (InterruptedException e) {
+			return;
+		}
+		int failures = 0;
+		while (running) {
+			try {
+				if (nextWatchIndex <= 0L) {
+					// never read successfully, or the index has been cleared by etcd
+					Map<String, byte[]> files = fetchSnapshot();
+					ConfigSourceListener current = listener;
+					if (null != current) {
+						current.onSnapshot(files);
+					}
+				}
+				EtcdKeysResponse response = etcdClient.getDir(rootPath).recursive().waitForChange(nextWatchIndex)
+						.timeout(WATCH_TIMEOUT_SECONDS, TimeUnit.SECONDS).send().get();
+				failures = 0;
+				health = ConfigSourceHealth.up();
+				handleWatchEvent(response);
+			} catch (TimeoutException e) {
+				// nothing changed in the polling period, watch again with the same index
+			} catch (EtcdException e) {
+				if (e.isErrorCode(EtcdErrorCode.EventIndexCleared)) {
+					// events after the index are not kept any more, have to read again
+					log.warn("watch index cleared, reload module, rootPath=" + rootPath + ", nextWatchIndex=" + nextWatchIndex
+									 + ", etcdIndex=" + e.index);
+					nextWatchIndex = 0L;
+				} else {
+					failures++;
+					health = ConfigSourceHealth.degraded("watch exception: " + e);
+					log.error("watch etcd exception, rootPath=" + rootPath + ", nextWatchIndex=" + nextWatchIndex, e);
+					backoff(failures);
+				}
+			} catch (Throwable e) {
+				if (!running) {
+					break;
+				}
+				failures++;
+				health = ConfigSourceHealth.degraded("watch exception: " + e);
+				log.error("watch etcd exception, rootPath=" + rootPath + ", nextWatchIndex=" + nextWatchIndex, e);
+				backoff(failures);
+			}
+		}
+		log.info("watch loop end, rootPath=" + rootPath);
+	}
+
+	/**
+	 * deliver one event of the watch
+	 *
+	 * @param response
+	 */
+	private void handleWatchEvent(EtcdKeysResponse response) {
+		EtcdKeysResponse.EtcdNode node = response.node;
+		if (null == node) {
+			return;
+		}
+		if (null != node.modifiedIndex) {
+			nextWatchIndex = node.modifiedIndex + 1;
+		}
+		String parentPath = node.key.substring(0, Math.max(0, node.key.lastIndexOf(PATH_SEP)));
+		if (node.dir || !rootPath.equals(parentPath)) {
+			// only config files directly under module's directory
+			return;
+		}
+		String configFileName = getConfigFileName(node.key);
+		EtcdKeyAction action = response.action;
+		ConfigUpdate update;
+		if (EtcdKeyAction.delete == action || EtcdKeyAction.expire == action || EtcdKeyAction.compareAndDelete == action) {
+			update = ConfigUpdate.deleted(configFileName);
+		} else if (null != node.value) {
+			update = new ConfigUpdate(configFileName, StringUtil.getUTF8Bytes(node.value));
+		} else {
+			return;
+		}
+		ConfigSourceListener current = listener;
+		if (null != current) {
+			current.onChange(Collections.singletonList(update));
+		}
+	}
+
+	private void backoff(int failures) {
+		long delay = Math.min(MAX_RETRY_DELAY_MILLIS, 100L << Math.min(failures, 16));
+		try {
+			Thread.sleep(delay);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			running = false;
+		}
+	}
+
+	@Override
+	public ConfigSourceHealth getHealth() {
+		return health;
+	}
+
+	/**
+	 * stop watching and close client
+	 * 停止监听并关闭客户端
+	 */
+	@Override
+	public synchronized void close() {
+		running = false;
+		listener = null;
+		if (null != watchThread) {
+			watchThread.interrupt();
+			watchThread = null;
+		}
+		if (null != etcdClient) {
+			try {
+				etcdClient.close();
+			} catch (IOException e) {
+				log.error("close etcd client exception", e);
+			}
+			etcdClient = null;
+		}
+		health = ConfigSourceHealth.down("closed");
+	}
+
+	private static long maxModifiedIndex(EtcdKeysResponse.EtcdNode node) {
+		long index = 0L;
+		if (null != node) {
+			if (null != node.modifiedIndex) {
+				index = node.modifiedIndex;
+			}
+			if (null != node.nodes) {
+				for (EtcdKeysResponse.EtcdNode child : node.nodes) {
+					index = Math.max(index, maxModifiedIndex(child));
+				}
+			}
+		}
+		return index;
+	}
+
+	private static String getConfigFileName(String key) {
+		return key.substring(key.lastIndexOf(PATH_SEP) + 1);
+	}
+}
@@ -1,13 +1,176 @@
 package com.extantfuture.mars.etcd;
 
+import com.extantfuture.mars.config.ConfigSnapshotStore;
+import com.extantfuture.mars.config.MarsCallback;
+import com.extantfuture.mars.config.listener.ConfigListenerManager;
+import com.extantfuture.mars.config.source.ConfigReloadEngine;
+import com.extantfuture.mars.config.source.ConfigSourceHealth;
+import com.extantfuture.mars.util.EnvUtil;
+import com.extantfuture.mars.util.StringUtil;
+import mousio.etcd4j.responses.EtcdAuthenticationException;
+import mousio.etcd4j.responses.EtcdException;
+import org.apache.log4j.Logger;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.TimeoutException;
+
 /**
  * Config managed by ETCD
  * 通过ETCD管理配置
  * use ETCD to store config data and watcher to watch the update of config to execute callbacks
+ * <p>
+ * each config file is a key under /mars/moduleName/, loading and watching is done by {@link EtcdConfigSource},
+ * reloading by {@link ConfigReloadEngine}
+ * </p>
  *
  * @author Rambo, <rambo@extantfuture.com>
  * @date 2017/6/16 下午10:51
  */
 public class MarsEtcdManager {
 
+	private static final Logger log = Logger.getLogger(MarsEtcdManager.class.getSimpleName());
+	// prefix path for modules in ETCD
+	private static final String PRE_PATH = "/mars/";
+	// server address of ETCD for formal deploy environment
+	private static final String FORMAL_ETCD_CONNECT_ADDRESS = "http://formal.etcd.mars:2379";// maybe multi etcd node address
+	// server address of ETCD for preview deploy environment
+	private static final String PREVIEW_ETCD_CONNECT_ADDRESS = "http://preview.etcd.mars:2379";
+	// server address of ETCD for develop deploy environment
+	private static final String DEV_ETCD_CONNECT_ADDRESS = "http://dev.etcd.mars:2379";
+	private volatile ConfigReloadEngine engine;
+
+	/**
+	 * init module's config with etcd address of current deploy environment
+	 * need to be call when module start
+	 * 模块启动时需要执行初始化
+	 *
+	 * @param moduleName
+	 */
+	public void init(String moduleName) throws IOException, EtcdException, EtcdAuthenticationException, TimeoutException {
+		String address = getEtcdConnectAddress();
+		Objects.requireNonNull(address, "etcd connect address is NULL!");
+		List<URI> uriList = new ArrayList<>();
+		for (String uri : StringUtil.split(address, ",")) {
+			uriList.add(URI.create(uri));
+		}
+		init(moduleName, uriList.toArray(new URI[0]));
+	}
+
+	/**
+	 * init module's config with given etcd endpoints
+	 * 指定etcd地址初始化
+	 *
+	 * @param moduleName
+	 * @param endpoints
+	 */
+	public synchronized void init(String moduleName, URI... endpoints) throws IOException, EtcdException, EtcdAuthenticationException, TimeoutException {
+		if (null != engine) {
+			throw new IllegalStateException("MarsEtcdManager is already initialized");
+		}
+		final String moduleRootPath = getEtcdRootPath(moduleName);
+		Objects.requireNonNull(moduleRootPath, "moduleName is NULL!");
+		EtcdConfigSource source = new EtcdConfigSource(moduleRootPath, endpoints);
+		ConfigReloadEngine reloadEngine = new ConfigReloadEngine(source, ConfigSnapshotStore.forModule(moduleName));
+		try {
+			// if etcd fails but local snapshot is restored, the watch thread reads again until succeed
+			reloadEngine.start();
+		} catch (IOException | EtcdException | EtcdAuthenticationException | TimeoutException | RuntimeException e) {
+			reloadEngine.close();
+			throw e;
+		} catch (Exception e) {
+			reloadEngine.close();
+			throw new IOException(e);
+		}
+		engine = reloadEngine;
+		log.info("init end, moduleName=" + moduleName + ", moduleRootPath=" + moduleRootPath);
+	}
+
+	/**
+	 * stop watching and close client
+	 * 停止监听并关闭客户端
+	 */
+	public synchronized void close() {
+		if (null != engine) {
+			engine.close();
+			engine = null;
+		}
+	}
+
+	/**
+	 * health of etcd source
+	 *
+	 * @return
+	 */
+	public ConfigSourceHealth getHealth() {
+		ConfigReloadEngine current = engine;
+		return null == current ? ConfigSourceHealth.down("not initialized") : current.getHealth();
+	}
+
+	/**
+	 * get etcd's connect address by deploy environment
+	 * 根据部署环境获取当前应该连接的etcd地址
+	 *
+	 * @return
+	 */
+	private String getEtcdConnectAddress() {
+		return EnvUtil.getAddress(FORMAL_ETCD_CONNECT_ADDRESS, PREVIEW_ETCD_CONNECT_ADDRESS, DEV_ETCD_CONNECT_ADDRESS);
+	}
+
+	/**
+	 * build module's root path in etcd
+	 * 获取当前模块在etcd中的根目录
+	 *
+	 * @param moduleName
+	 * @return
+	 */
+	private String getEtcdRootPath(String moduleName) {
+		String path = null;
+		if (StringUtil.isNotEmpty(moduleName)) {
+			path = StringUtil.concat(PRE_PATH, moduleName);
+		}
+		log.info("getEtcdRootPath moduleName=" + moduleName + ", path=" + path);
+		return path;
+	}
+
+	private static final MarsEtcdManager instance = new MarsEtcdManager();
+
+	private MarsEtcdManager() {
+	}
+
+	public static MarsEtcdManager getInstance() {
+		return instance;
+	}
+
+	/**
+	 * register callback for config update
+	 * 添加配置更新回调
+	 *
+	 * @param callback
+	 */
+	public void registerCallback(MarsCallback callback) {
+		ConfigListenerManager.addCallback(callback);
+	}
+
+	/**
+	 * remove callback for config update
+	 * 移除某个配置更新回调
+	 *
+	 * @param callback
+	 */
+	public void removeCallback(MarsCallback callback) {
+		ConfigListenerManager.removeCallback(callback);
+	}
+
+	/**
+	 * remove all callbacks for config update
+	 * 移除所有配置更新回调
+	 */
+	public void removeAllCallback() {
+		ConfigListenerManager.removeAllCallbacks();
+	}
+
 }
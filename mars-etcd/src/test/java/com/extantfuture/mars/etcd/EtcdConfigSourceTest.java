@@ -0,0 +1,212 @@
+package com.extantfuture.mars.etcd;
+
+import com.extantfuture.mars.config.source.ConfigSourceListener;
+import com.extantfuture.mars.config.source.ConfigUpdate;
+import com.extantfuture.mars.util.StringUtil;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+/**
+ * EtcdConfigSource against a fake etcd v2 keys API, which serves the module's directory and answers each watch
+ * request with the next queued event
+ * 使用模拟的etcd v2接口测试EtcdConfigSource的监听恢复
+ *
+ * @author Rambo, <rambo@extantfuture.com>
+ * @date 2017/7/14 上午11:00
+ */
+public class EtcdConfigSourceTest {
+
+	private static final String ROOT_PATH = "/m";
+	private static final long WAIT_SECONDS = 10L;
+
+	private HttpServer server;
+	private ExecutorService executor;
+	private EtcdConfigSource source;
+	// JSON of the directory read and the X-Etcd-Index it is read at
+	private volatile String dirJson;
+	private volatile long dirEtcdIndex;
+	// replies of the following watch requests, in order
+	private final BlockingQueue<Reply> watchReplies = new LinkedBlockingQueue<>();
+	// waitIndex of each watch request received
+	private final BlockingQueue<Long> waitIndexes = new LinkedBlockingQueue<>();
+	// events delivered to the listener, like "change a=k=2" or "snapshot {a=k=1}"
+	private final BlockingQueue<String> events = new LinkedBlockingQueue<>();
+
+	@Before
+	public void setUp() throws Exception {
+		setDir(10L, "a", "k=1");
+		executor = Executors.newCachedThreadPool();
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.createContext("/v2/keys" + ROOT_PATH, this::handle);
+		server.setExecutor(executor);
+		server.start();
+		source = new EtcdConfigSource(ROOT_PATH, URI.create("http://127.0.0.1:" + server.getAddress().getPort()));
+		source.start(new ConfigSourceListener() {
+			@Override
+			public void onChange(List<ConfigUpdate> updates) {
+				for (ConfigUpdate update : updates) {
+					events.add("change " + update.getConfigFileName() + "="
+									   + (update.isDeleted() ? "deleted" : StringUtil.getUTF8String(update.getContent())));
+				}
+			}
+
+			@Override
+			public void onSnapshot(Map<String, byte[]> files) {
+				events.add("snapshot " + toStringMap(files));
+			}
+		});
+		assertEquals("{a=k=1}", toStringMap(source.fetchSnapshot()).toString());
+		// watching starts right after the index read with the directory
+		assertEquals(Long.valueOf(11L), waitIndexes.poll(WAIT_SECONDS, TimeUnit.SECONDS));
+	}
+
+	@After
+	public void tearDown() {
+		source.close();
+		server.stop(0);
+		executor.shutdownNow();
+	}
+
+	@Test
+	public void testResumeFromModifiedIndex() throws Exception {
+		watchReplies.add(Reply.event("set", ROOT_PATH + "/a", "k=2", 15L));
+		assertEquals("change a=k=2", events.poll(WAIT_SECONDS, TimeUnit.SECONDS));
+		assertEquals(Long.valueOf(16L), waitIndexes.poll(WAIT_SECONDS, TimeUnit.SECONDS));
+
+		watchReplies.add(Reply.event("delete", ROOT_PATH + "/a", null, 20L));
+		assertEquals("change a=deleted", events.poll(WAIT_SECONDS, TimeUnit.SECONDS));
+		assertEquals(Long.valueOf(21L), waitIndexes.poll(WAIT_SECONDS, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void testNestedKeyIgnored() throws Exception {
+		watchReplies.add(Reply.event("set", ROOT_PATH + "/sub/x", "k=2", 17L));
+		// the index still moves past the ignored event
+		assertEquals(Long.valueOf(18L), waitIndexes.poll(WAIT_SECONDS, TimeUnit.SECONDS));
+		assertNull(events.poll());
+
+		watchReplies.add(Reply.event("set", ROOT_PATH + "/b", "k=3", 19L));
+		assertEquals("change b=k=3", events.poll(WAIT_SECONDS, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void testReadAgainWhenIndexCleared() throws Exception {
+		setDir(30L, "a", "k=3", "b", "k=4");
+		watchReplies.add(Reply.error(400, "{\"errorCode\":401,\"message\":\"The event in requested index is outdated and "
+				+ "cleared\",\"cause\":\"the requested history has been cleared [20/11]\",\"index\":30}", 30L));
+		assertEquals("snapshot {a=k=3, b=k=4}", events.poll(WAIT_SECONDS, TimeUnit.SECONDS));
+		// watching resumes after the index of the new read
+		assertEquals(Long.valueOf(31L), waitIndexes.poll(WAIT_SECONDS, TimeUnit.SECONDS));
+
+		watchReplies.add(Reply.event("set", ROOT_PATH + "/b", "k=5", 32L));
+		assertEquals("change b=k=5", events.poll(WAIT_SECONDS, TimeUnit.SECONDS));
+	}
+
+	private void handle(HttpExchange exchange) throws IOException {
+		String query = exchange.getRequestURI().getQuery();
+		Reply reply;
+		if (null != query && query.contains("wait=true")) {
+			waitIndexes.add(Long.valueOf(getParam(query, "waitIndex")));
+			try {
+				reply = watchReplies.poll(WAIT_SECONDS, TimeUnit.SECONDS);
+			} catch (InterruptedException e) {
+				return;
+			}
+			if (null == reply) {
+				// long polling expired, the client times out before
+				exchange.close();
+				return;
+			}
+		} else {
+			reply = new Reply(200, dirJson, dirEtcdIndex);
+		}
+		byte[] body = StringUtil.getUTF8Bytes(reply.body);
+		exchange.getResponseHeaders().add("Content-Type", "application/json");
+		exchange.getResponseHeaders().add("X-Etcd-Index", String.valueOf(reply.etcdIndex));
+		exchange.sendResponseHeaders(reply.status, body.length);
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write(body);
+		}
+	}
+
+	/**
+	 * @param etcdIndex
+	 * @param nameValues configFileName, content, configFileName, content...
+	 */
+	private void setDir(long etcdIndex, String... nameValues) {
+		StringBuilder nodes = new StringBuilder();
+		for (int i = 0; i < nameValues.length; i += 2) {
+			if (nodes.length() > 0) {
+				nodes.append(',');
+			}
+			nodes.append(node(ROOT_PATH + "/" + nameValues[i], nameValues[i + 1], etcdIndex - 1));
+		}
+		dirJson = "{\"action\":\"get\",\"node\":{\"key\":\"" + ROOT_PATH + "\",\"dir\":true,\"nodes\":[" + nodes
+				+ "],\"modifiedIndex\":1,\"createdIndex\":1}}";
+		dirEtcdIndex = etcdIndex;
+	}
+
+	private static String node(String key, String value, long modifiedIndex) {
+		return "{\"key\":\"" + key + "\"" + (null == value ? "" : ",\"value\":\"" + value + "\"") + ",\"modifiedIndex\":"
+				+ modifiedIndex + ",\"createdIndex\":" + modifiedIndex + "}";
+	}
+
+	private static String getParam(String query, String name) {
+		for (String param : query.split("&")) {
+			if (param.startsWith(name + "=")) {
+				return param.substring(name.length() + 1);
+			}
+		}
+		throw new IllegalArgumentException("no " + name + " in " + query);
+	}
+
+	private static Map<String, String> toStringMap(Map<String, byte[]> files) {
+		assertNotNull(files);
+		Map<String, String> map = new LinkedHashMap<>();
+		for (Map.Entry<String, byte[]> entry : files.entrySet()) {
+			map.put(entry.getKey(), StringUtil.getUTF8String(entry.getValue()));
+		}
+		return map;
+	}
+
+	private static class Reply {
+		private final int status;
+		private final String body;
+		private final long etcdIndex;
+
+		private Reply(int status, String body, long etcdIndex) {
+			this.status = status;
+			this.body = body;
+			this.etcdIndex = etcdIndex;
+		}
+
+		private static Reply event(String action, String key, String value, long modifiedIndex) {
+			return new Reply(200, "{\"action\":\"" + action + "\",\"node\":" + node(key, value, modifiedIndex) + "}",
+							 modifiedIndex);
+		}
+
+		private static Reply error(int status, String body, long etcdIndex) {
+			return new Reply(status, body, etcdIndex);
+		}
+	}
+}
@@ -1,24 +1,39 @@
 package com.extantfuture.mars.zk;
 
+import com.extantfuture.mars.config.ConfigNamespace;
+import com.extantfuture.mars.config.ConfigSnapshotStore;
 import com.extantfuture.mars.config.MarsCallback;
-import com.extantfuture.mars.config.MarsConfigManager;
-import com.extantfuture.mars.config.gray.GrayConfigManager;
-import com.extantfuture.mars.util.CollectionUtil;
+import com.extantfuture.mars.config.listener.ConfigListenerManager;
+import com.extantfuture.mars.config.source.ConfigReloadEngine;
+import com.extantfuture.mars.config.source.ConfigSourceHealth;
 import com.extantfuture.mars.util.EnvUtil;
 import com.extantfuture.mars.util.StringUtil;
 import org.apache.log4j.Logger;
 import org.apache.zookeeper.KeeperException;
-import org.apache.zookeeper.Watcher;
-import org.apache.zookeeper.ZooKeeper;
-import org.apache.zookeeper.data.Stat;
 
 import java.io.IOException;
-import java.util.*;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Config managed by ZooKeeper
  * 通过ZooKeeper管理配置
  * use ZooKeeper to store config data and watcher to watch the update of config to execute callbacks
+ * <p>
+ * loading and watching is done by {@link ZkConfigSource}, reloading by {@link ConfigReloadEngine}
+ * </p>
+ * <p>
+ * {@link #getInstance()} loads a module into the default namespace read by the static API of MarsConfigManager,
+ * other modules are loaded into their own namespaces, so config files of the same name never collide,
+ * and all modules of the same ZooKeeper address share one {@link ZkSession}:
+ * <pre>
+ * MarsZkManager.getInstance().init("my_module");
+ * MarsZkManager shared = MarsZkManager.getInstance("shared_module");
+ * shared.init("shared_module");
+ * String value = shared.getNamespace().getConfig("user_conf.system_user");
+ * </pre>
+ * </p>
  *
  * @author Rambo, <rambo@extantfuture.com>
  * @date 2017/6/16 下午8:36
@@ -28,20 +43,17 @@ public class MarsZkManager {
 	private static final Logger log = Logger.getLogger(MarsZkManager.class.getSimpleName());
 	// prefix path for modules in ZooKeeper
 	private static final String PRE_PATH = "/mars/";
-	private static final String PATH_SEP = "/";
-	// timeout config for ZooKeeper connection session
-	private static final int SESSION_TIMEOUT = 60000;
 	// server address of ZooKeeper for formal deploy environment
 	private static final String FORMAL_ZK_CONNECT_ADDRESS = "formal.zookeeper.mars:2181";// maybe multi zk node address
 	// server address of ZooKeeper for preview deploy environment
 	private static final String PREVIEW_ZK_CONNECT_ADDRESS = "preview.zookeeper.mars:2181";
 	// server address of ZooKeeper for develop deploy environment
 	private static final String DEV_ZK_CONNECT_ADDRESS = "dev.zookeeper.mars:2181";
-	// client of ZooKeeper
-	private ZooKeeper zooKeeper;
-	// container of callbacks
-	//	private List<MarsCallback> callbackList = new ArrayList<>();
-	private Map<String, List<MarsCallback>> fileNameCallbackListMap = new HashMap<>();
+	// deadline for fetching all config files asynchronously when init, 0 means fetching one by one
+	private volatile long bootstrapTimeoutMillis = 0L;
+	private volatile ConfigReloadEngine engine;
+	// namespace the module's config files are published into
+	private final ConfigNamespace namespace;
 
 	/**
 	 * init module's config
@@ -51,104 +63,85 @@ public class MarsZkManager {
 	 * @param moduleName
 	 */
 	public void init(String moduleName) throws InterruptedException, IOException, KeeperException {
-		final String moduleZkRootPath = getZkRootPath(moduleName);
-		// 初始时获取一次配置内容更新到内存缓存
-		reloadAndWatchConfigNode(moduleZkRootPath, null);
-		log.info("init end, moduleName=" + moduleName + ", moduleZkRootPath=" + moduleZkRootPath);
+		init(moduleName, getZkConnectAddress());
 	}
 
 	/**
-	 * get config data from zk node and update cache in memory, then call callbacks
-	 * 获取某个zk节点下的配置数据更新并执行回调逻辑
+	 * init module's config in async bootstrap mode
+	 * 异步模式初始化，一次性并发获取所有配置文件节点
+	 * <p>
+	 * getData of all config file nodes are pipelined in one round trip instead of one by one,
+	 * and all config files are published as one snapshot
+	 * </p>
 	 *
-	 * @param zkNodePath
-	 * @param zkSubNodePath
+	 * @param moduleName
+	 * @param bootstrapTimeoutMillis deadline to wait for all config files
 	 */
-	private void reloadAndWatchConfigNode(final String zkNodePath, final String zkSubNodePath)
-			throws IOException, KeeperException, InterruptedException {
-		long startTs = System.nanoTime();
+	public void init(String moduleName, long bootstrapTimeoutMillis) throws InterruptedException, IOException, KeeperException {
+		this.bootstrapTimeoutMillis = bootstrapTimeoutMillis;
+		init(moduleName);
+	}
+
+	/**
+	 * init module's config with given zookeeper address
+	 * 指定zookeeper地址初始化
+	 *
+	 * @param moduleName
+	 * @param connectAddress
+	 */
+	public synchronized void init(String moduleName, String connectAddress) throws InterruptedException, IOException, KeeperException {
+		if (null != engine) {
+			throw new IllegalStateException("MarsZkManager is already initialized, namespace=" + namespace.getName());
+		}
+		final String moduleZkRootPath = getZkRootPath(moduleName);
+		Objects.requireNonNull(moduleZkRootPath, "moduleName is NULL!");
+		ZkConfigSource source = new ZkConfigSource(connectAddress, moduleZkRootPath, bootstrapTimeoutMillis);
+		ConfigReloadEngine reloadEngine = new ConfigReloadEngine(source, ConfigSnapshotStore.forModule(moduleName),
+																	namespace);
 		try {
-			if (StringUtil.isNotEmpty(zkNodePath)) {
-				final List<String> configFileNameList = getClient().getChildren(zkNodePath, event -> {
-					if (null != event && null != event.getType()) {
-						if (Watcher.Event.EventType.NodeChildrenChanged.getIntValue() == event.getType().getIntValue()) {
-							// add new config file or delete config file
-							try {
-								reloadAndWatchConfigNode(zkNodePath, event.getPath());
-							} catch (Throwable e) {
-								log.error("reloadAndWatchConfigNode error when NodeChildrenChanged, event=" + event, e);
-							}
-						}
-					}
-				});
-				if (StringUtil.isNotEmpty(zkSubNodePath)) {
-					Stat stat = getClient().exists(zkSubNodePath, false);
-					if (null == stat) {
-						// deleted, this almost not happen in Production TODO remove config keys in memory
-					} else {
-						// new config file
-						byte[] value = getClient().getData(zkSubNodePath, watcher, null);
-						String configFileName = StringUtil.removeAll(zkSubNodePath, zkNodePath);
-						reloadByConfigFile(configFileName, value);
-					}
-				} else {
-					if (CollectionUtil.isNotEmpty(configFileNameList)) {
-						for (String configFileName : configFileNameList) {
-							if (StringUtil.isNotEmpty(configFileName)) {
-								String childrenPath = StringUtil.concat(zkNodePath, PATH_SEP, configFileName);
-								byte[] value = getClient().getData(childrenPath, watcher, null);
-								reloadByConfigFile(configFileName, value);
-							}
-						}
-					}
-				}
-			}
-		} catch (Exception e) {
-			log.error("reloadAndWatchConfigNode exception, zkNodePath=" + zkNodePath + ", zkSubNodePath=" + zkSubNodePath, e);
+			reloadEngine.start();
+		} catch (InterruptedException | IOException | KeeperException | RuntimeException e) {
+			reloadEngine.close();
 			throw e;
-		} finally {
-			log.info(StringUtil.concat("reloadAndWatchConfigNode zkNodePath=", zkNodePath, ", zkSubNodePath=", zkSubNodePath,
-									   ", cost=", System.nanoTime() - startTs, "ns"));
+		} catch (Exception e) {
+			reloadEngine.close();
+			throw new IOException(e);
 		}
+		engine = reloadEngine;
+		log.info("init end, moduleName=" + moduleName + ", moduleZkRootPath=" + moduleZkRootPath + ", namespace="
+						 + namespace.getName());
 	}
 
-	private void reloadConfigFileNode(String zkConfigFileNodePath) throws IOException, KeeperException, InterruptedException {
-		if (StringUtil.isNotEmpty(zkConfigFileNodePath)) {
-			String[] array = StringUtil.split(zkConfigFileNodePath, PATH_SEP);
-			if (CollectionUtil.isNotEmpty(array)) {
-				String configFileName = array[array.length - 1];
-				byte[] value = getClient().getData(zkConfigFileNodePath, watcher, null);
-				reloadByConfigFile(configFileName, value);
-			}
+	/**
+	 * stop watching the module, config loaded stays in the namespace, init can be called again
+	 * 停止监听模块配置，已加载的配置保留
+	 */
+	public synchronized void close() {
+		if (null != engine) {
+			engine.close();
+			engine = null;
+			log.info("close namespace=" + namespace.getName());
 		}
 	}
 
 	/**
-	 * reload config from file and handle callback
+	 * namespace of the module's config, getters of it read only this module
+	 * 模块配置所在的命名空间
 	 *
-	 * @param configFileName
-	 * @param fileContent
+	 * @return
 	 */
-	private void reloadByConfigFile(String configFileName, byte[] fileContent) {
-		if (CollectionUtil.isNotEmpty(fileContent)) {
-			String configContent = StringUtil.getUTF8String(fileContent);
-			MarsConfigManager.reloadConfigContent(configContent);
-			GrayConfigManager.resetGrayConfigCache();
-
-			log.info(StringUtil.concat("reloadByConfigFile configFileName=", configFileName));
+	public ConfigNamespace getNamespace() {
+		return namespace;
+	}
 
-			if (StringUtil.isNotEmpty(configFileName)) {
-				List<MarsCallback> callbackList = fileNameCallbackListMap.get(configFileName);
-				if (CollectionUtil.isNotEmpty(callbackList)) {
-					for (int i = 0; i < callbackList.size(); i++) {
-						MarsCallback callback = callbackList.get(i);
-						if (null != callback) {
-							callback.reloadConfig();
-						}
-					}
-				}
-			}
-		}
+	/**
+	 * health of zookeeper source
+	 *
+	 * @return
+	 */
+	public ConfigSourceHealth getHealth() {
+		ConfigReloadEngine current = engine;
+		return null == current ? ConfigSourceHealth.down("not initialized") : current.getHealth();
 	}
 
 	/**
@@ -158,22 +151,7 @@ public class MarsZkManager {
 	 * @return
 	 */
 	private String getZkConnectAddress() {
-		String address = null;
-		EnvUtil.Env env = EnvUtil.getEnv();
-		if (null != env) {
-			switch (env) {
-				case PRODUCTION:
-					address = FORMAL_ZK_CONNECT_ADDRESS;
-					break;
-				case PREVIEW:
-					address = PREVIEW_ZK_CONNECT_ADDRESS;
-					break;
-				case DEV:
-					address = DEV_ZK_CONNECT_ADDRESS;
-					break;
-			}
-		}
-		return address;
+		return EnvUtil.getAddress(FORMAL_ZK_CONNECT_ADDRESS, PREVIEW_ZK_CONNECT_ADDRESS, DEV_ZK_CONNECT_ADDRESS);
 	}
 
 	/**
@@ -192,40 +170,38 @@ public class MarsZkManager {
 		return path;
 	}
 
-	private ZooKeeper getClient() throws IOException {
-		if (null == zooKeeper) {
-			String address = getZkConnectAddress();
-			Objects.requireNonNull(address, "zookeeper connect address is NULL!");
-			zooKeeper = new ZooKeeper(address, SESSION_TIMEOUT, null);
-		}
-		return zooKeeper;
+	private static final MarsZkManager instance = new MarsZkManager(ConfigNamespace.getDefault());
+	// namespace -> manager of other namespaces
+	private static final Map<String, MarsZkManager> instanceMap = new ConcurrentHashMap<>();
+
+	private MarsZkManager(ConfigNamespace namespace) {
+		this.namespace = namespace;
 	}
 
 	/**
-	 * watch node's create or update in zookeeper, this happens when config file changed
+	 * manager of the default namespace
+	 *
+	 * @return
 	 */
-	private Watcher watcher = event -> {
-		if (null != event && null != event.getType()) {
-			if (Watcher.Event.EventType.NodeDataChanged.getIntValue() == event.getType().getIntValue()) {
-				// 配置文件节点变更
-				try {
-					reloadConfigFileNode(event.getPath());
-				} catch (Throwable e) {
-					log.error("config file watcher reload error, event=" + event, e);
-				}
-			}
-		}
-	};
-
-	private static final MarsZkManager instance = new MarsZkManager();
-
-	private MarsZkManager() {
-	}
-
 	public static MarsZkManager getInstance() {
 		return instance;
 	}
 
+	/**
+	 * manager of a namespace, usually named after the module loaded into it
+	 * 获取某命名空间的配置管理，通常以模块名作为命名空间
+	 *
+	 * @param namespace NULL or empty for the default namespace
+	 * @return
+	 */
+	public static MarsZkManager getInstance(String namespace) {
+		ConfigNamespace configNamespace = ConfigNamespace.get(namespace);
+		if (configNamespace.isDefault()) {
+			return instance;
+		}
+		return instanceMap.computeIfAbsent(configNamespace.getName(), n -> new MarsZkManager(configNamespace));
+	}
+
 	/**
 	 * register callback for config update
 	 * 添加配置更新回调
@@ -233,44 +209,25 @@ public class MarsZkManager {
 	 * @param callback
 	 */
 	public void registerCallback(MarsCallback callback) {
-		if (null != callback && StringUtil.isNotEmpty(callback.watchConfigFileName())) {
-			String configFileName = callback.watchConfigFileName();
-			List<MarsCallback> callbackList = fileNameCallbackListMap.get(configFileName);
-			if (null == callbackList) {
-				callbackList = new ArrayList<>();
-				fileNameCallbackListMap.put(configFileName, callbackList);
-			}
-			if (!callbackList.contains(callback)) {
-				callbackList.add(callback);
-			}
-		}
+		ConfigListenerManager.addCallback(namespace.getName(), callback);
 	}
 
 	/**
-	 * remove callback for config update
+	 * remove callback for config update of the namespace, it stays registered in other namespaces
 	 * 移除某个配置更新回调
 	 *
 	 * @param callback
 	 */
 	public void removeCallback(MarsCallback callback) {
-		if (null != callback) {
-			String configFileName = callback.watchConfigFileName();
-			if (StringUtil.isNotEmpty(configFileName)) {
-				List<MarsCallback> callbackList = fileNameCallbackListMap.get(configFileName);
-				if (CollectionUtil.isNotEmpty(callbackList)) {
-					callbackList.remove(callback);
-				}
-			}
-		}
+		ConfigListenerManager.removeCallback(namespace.getName(), callback);
 	}
 
 	/**
-	 * remove all callbacks for config update
+	 * remove all callbacks for config update of the namespace
 	 * 移除所有配置更新回调
 	 */
 	public void removeAllCallback() {
-		fileNameCallbackListMap.clear();
-		fileNameCallbackListMap = new HashMap<>();
+		ConfigListenerManager.removeAllCallbacks(namespace.getName());
 	}
 
 }
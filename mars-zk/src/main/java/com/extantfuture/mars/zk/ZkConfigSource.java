@@ -0,0 +1,678 @@
+package com.extantfuture.mars.zk;
+
+import com.extantfuture.mars.config.source.ConfigSource;
+import com.extantfuture.mars.config.source.ConfigSourceHealth;
+import com.extantfuture.mars.config.source.ConfigSourceListener;
+import com.extantfuture.mars.config.source.ConfigUpdate;
+import com.extantfuture.mars.metrics.HitCounter;
+import com.extantfuture.mars.metrics.MarsMetrics;
+import com.extantfuture.mars.util.CollectionUtil;
+import com.extantfuture.mars.util.StringUtil;
+import org.apache.log4j.Logger;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.WatchedEvent;
+import org.apache.zookeeper.Watcher;
+import org.apache.zookeeper.ZooKeeper;
+import org.apache.zookeeper.data.Stat;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.CRC32;
+
+/**
+ * config source of a module's node in ZooKeeper, each child node is a config file
+ * ZooKeeper配置来源，模块节点下的每个子节点是一个配置文件
+ * <p>
+ * children of the module's node and data of each child node are watched,
+ * watchers only queue the changed paths, so ZooKeeper's event thread is never blocked by reading, parsing or callbacks,
+ * the reload worker drains the queue in batches, reads each changed node once and delivers each batch at once,
+ * so a burst of changes is published as one snapshot.
+ * sources of the same connect address share one {@link ZkSession}.
+ * when the session expires, watches are re-armed on the new session and config file nodes whose mzxid changed
+ * while not watching are read again and delivered as one batch.
+ * version and content hash of each config file node are recorded, a node read again with the same mzxid or the
+ * same content is not delivered, counted by {@link MarsMetrics#sourceCounter(String)}.
+ * when reading all config files fails, like ZooKeeper being unreachable at startup while the local snapshot serves,
+ * the reload worker reads them again until it succeeds and delivers them as a snapshot, which arms all watches
+ * </p>
+ *
+ * @author Rambo, <rambo@extantfuture.com>
+ * @date 2017/7/4 上午10:40
+ */
+public class ZkConfigSource implements ConfigSource {
+
+	private static final Logger log = Logger.getLogger(ZkConfigSource.class.getSimpleName());
+	private static final String PATH_SEP = "/";
+	// delay to drain again after a failed batch
+	private static final long RETRY_DELAY_MILLIS = 1000L;
+	// worker reading changed nodes of all sources, off ZooKeeper's event thread
+	private static final ScheduledExecutorService reloadExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+		Thread thread = new Thread(r, "mars-zk-reload");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	// connect address of ZooKeeper
+	private final String connectAddress;
+	// module's node path
+	private final String rootPath;
+	// deadline for fetching all config files asynchronously, 0 means fetching one by one
+	private final long fetchTimeoutMillis;
+	// shared session of connect address, acquired on first use
+	private ZkSession session;
+	// closed sources never acquire the session again, their watchers left on the shared client are ignored
+	private volatile boolean closed;
+	// names of config file nodes seen by this source -> version of the data last delivered
+	private final Map<String, NodeVersion> versionMap = new ConcurrentHashMap<>();
+	// config files applied or skipped as unchanged
+	private final HitCounter reloadCounter;
+	// id of the session the watches are armed on, 0 before the first fetch
+	private volatile long watchedSessionId;
+	// queued work, guarded by pendingPaths: changed config file node paths, deduplicated
+	private final Set<String> pendingPaths = new LinkedHashSet<>();
+	private boolean childrenPending;
+	private boolean catchUpPending;
+	// all config files have to be read again, the last read failed
+	private boolean snapshotPending;
+	// whether a drain is scheduled or running, only one drain of a source runs at a time
+	private boolean drainScheduled;
+	private volatile ConfigSourceListener listener;
+	private volatile ConfigSourceHealth health = ConfigSourceHealth.down("not started");
+
+	/**
+	 * @param connectAddress     connect address of ZooKeeper
+	 * @param rootPath           module's node path
+	 * @param fetchTimeoutMillis deadline for fetching all config files asynchronously, 0 means fetching one by one
+	 */
+	public ZkConfigSource(String connectAddress, String rootPath, long fetchTimeoutMillis) {
+		this.connectAddress = connectAddress;
+		this.rootPath = rootPath;
+		this.fetchTimeoutMillis = fetchTimeoutMillis;
+		this.reloadCounter = MarsMetrics.sourceCounter(getName());
+	}
+
+	@Override
+	public String getName() {
+		return "zookeeper:" + rootPath;
+	}
+
+	@Override
+	public void start(ConfigSourceListener listener) throws IOException {
+		this.listener = listener;
+		getClient();
+	}
+
+	/**
+	 * read all config file nodes and watch children of module's node and data of each config file node
+	 * 读取全部配置文件节点并监听
+	 *
+	 * @return configFileName -> content, in order of children
+	 */
+	@Override
+	public Map<String, byte[]> fetchSnapshot() throws IOException, KeeperException, InterruptedException {
+		long startTs = System.nanoTime();
+		long listCost = 0L;
+		long fetchCost = 0L;
+		Map<String, byte[]> contentMap = new LinkedHashMap<>();
+		try {
+			ZooKeeper client = getClient();
+			List<String> configFileNameList = client.getChildren(rootPath, childrenWatcher);
+			listCost = System.nanoTime() - startTs;
+			Map<String, NodeVersion> fetchedVersionMap = new HashMap<>();
+			if (CollectionUtil.isNotEmpty(configFileNameList)) {
+				long fetchTs = System.nanoTime();
+				contentMap = fetchTimeoutMillis > 0L ?
+						fetchConfigNodesAsync(configFileNameList, fetchTimeoutMillis, fetchedVersionMap) :
+						fetchConfigNodes(configFileNameList, fetchedVersionMap);
+				fetchCost = System.nanoTime() - fetchTs;
+			}
+			versionMap.clear();
+			versionMap.putAll(fetchedVersionMap);
+			watchedSessionId = client.getSessionId();
+			health = ConfigSourceHealth.up();
+			return contentMap;
+		} catch (IOException | KeeperException | InterruptedException e) {
+			health = ConfigSourceHealth.degraded("fetch exception: " + e);
+			log.error("fetchSnapshot exception, read again after " + RETRY_DELAY_MILLIS + "ms, rootPath=" + rootPath, e);
+			synchronized (pendingPaths) {
+				// no watch is armed, nothing would be delivered until the next successful read
+				snapshotPending = true;
+				scheduleDrain(RETRY_DELAY_MILLIS);
+			}
+			throw e;
+		} finally {
+			log.info(StringUtil.concat("fetchSnapshot rootPath=", rootPath, ", configFileNames=", contentMap.keySet(), ", cost=",
+									   System.nanoTime() - startTs, "ns, listCost=", listCost, "ns, fetchCost=", fetchCost, "ns"));
+		}
+	}
+
+	/**
+	 * get data of config file nodes one by one and watch them
+	 * 逐个获取配置文件节点数据
+	 *
+	 * @param configFileNameList
+	 * @param versionMap         collect configFileName -> version
+	 * @return configFileName -> content, in order of the list
+	 */
+	private Map<String, byte[]> fetchConfigNodes(List<String> configFileNameList, Map<String, NodeVersion> versionMap)
+			throws IOException, KeeperException, InterruptedException {
+		Map<String, byte[]> contentMap = new LinkedHashMap<>();
+		for (String configFileName : configFileNameList) {
+			if (StringUtil.isNotEmpty(configFileName)) {
+				String childrenPath = StringUtil.concat(rootPath, PATH_SEP, configFileName);
+				Stat stat = new Stat();
+				byte[] value = getClient().getData(childrenPath, dataWatcher, stat);
+				if (null != value) {
+					contentMap.put(configFileName, value);
+					versionMap.put(configFileName, new NodeVersion(stat, value));
+				}
+			}
+		}
+		return contentMap;
+	}
+
+	/**
+	 * issue getData of all config file nodes at once and wait for them with a deadline
+	 * 一次性异步发出所有配置文件节点的getData请求，并在超时时间内等待全部返回
+	 *
+	 * @param configFileNameList
+	 * @param timeoutMillis
+	 * @param versionMap         collect configFileName -> version
+	 * @return configFileName -> content, in order of the list
+	 */
+	private Map<String, byte[]> fetchConfigNodesAsync(List<String> configFileNameList, long timeoutMillis,
+			Map<String, NodeVersion> versionMap) throws IOException, KeeperException, InterruptedException {
+		final Map<String, byte[]> resultMap = new ConcurrentHashMap<>();
+		final Map<String, NodeVersion> resultVersionMap = new ConcurrentHashMap<>();
+		final AtomicReference<KeeperException> error = new AtomicReference<>();
+		final CountDownLatch latch = new CountDownLatch(configFileNameList.size());
+		ZooKeeper client = getClient();
+		for (String configFileName : configFileNameList) {
+			String childrenPath = StringUtil.concat(rootPath, PATH_SEP, configFileName);
+			client.getData(childrenPath, dataWatcher, (rc, path, ctx, data, stat) -> {
+				KeeperException.Code code = KeeperException.Code.get(rc);
+				if (KeeperException.Code.OK == code) {
+					if (null != data) {
+						resultMap.put((String) ctx, data);
+						resultVersionMap.put((String) ctx, new NodeVersion(stat, data));
+					}
+				} else if (KeeperException.Code.NONODE != code) {
+					// deleted between getChildren and getData is fine, any other error fails the fetch
+					error.compareAndSet(null, KeeperException.create(code, path));
+				}
+				latch.countDown();
+			}, configFileName);
+		}
+		if (!latch.await(timeoutMillis, TimeUnit.MILLISECONDS)) {
+			throw KeeperException.create(KeeperException.Code.OPERATIONTIMEOUT, rootPath);
+		}
+		if (null != error.get()) {
+			throw error.get();
+		}
+		Map<String, byte[]> contentMap = new LinkedHashMap<>();
+		for (String configFileName : configFileNameList) {
+			byte[] value = resultMap.get(configFileName);
+			if (null != value) {
+				contentMap.put(configFileName, value);
+				versionMap.put(configFileName, resultVersionMap.get(configFileName));
+			}
+		}
+		return contentMap;
+	}
+
+	/**
+	 * children of module's node changed, read new config file nodes and collect deleted ones
+	 * 模块节点的子节点变更，读取新增的配置文件并记录删除的配置文件
+	 *
+	 * @param client
+	 * @param updates          collect changes
+	 * @param stagedVersionMap collect versions of the batch
+	 */
+	private void reloadChildren(ZooKeeper client, List<ConfigUpdate> updates, Map<String, NodeVersion> stagedVersionMap)
+			throws KeeperException, InterruptedException {
+		List<String> configFileNameList = client.getChildren(rootPath, childrenWatcher);
+		Set<String> childrenSet = null == configFileNameList ? new HashSet<>() : new HashSet<>(configFileNameList);
+		int count = updates.size();
+		for (String configFileName : childrenSet) {
+			// only new config files are read, existing ones are watched by their data watches,
+			// a deleted and re-created one is read by the path queued on its NodeDeleted
+			if (StringUtil.isNotEmpty(configFileName) && null == lastVersion(configFileName, stagedVersionMap)) {
+				String childrenPath = StringUtil.concat(rootPath, PATH_SEP, configFileName);
+				Stat stat = new Stat();
+				byte[] value;
+				try {
+					value = client.getData(childrenPath, dataWatcher, stat);
+				} catch (KeeperException.NoNodeException e) {
+					// deleted again, its NodeChildrenChanged follows
+					continue;
+				}
+				if (null != value && recordVersion(configFileName, stat, value, stagedVersionMap)) {
+					updates.add(new ConfigUpdate(configFileName, value));
+				}
+			}
+		}
+		for (String configFileName : knownConfigFileNames(stagedVersionMap)) {
+			if (!childrenSet.contains(configFileName)) {
+				// deleted
+				stagedVersionMap.put(configFileName, null);
+				reloadCounter.hit();
+				updates.add(ConfigUpdate.deleted(configFileName));
+			}
+		}
+		log.info("reloadChildren rootPath=" + rootPath + ", updates=" + updates.subList(count, updates.size()));
+	}
+
+	/**
+	 * data of a config file node changed, read it again
+	 *
+	 * @param client
+	 * @param zkConfigFileNodePath
+	 * @param updates              collect changes
+	 * @param stagedVersionMap     collect versions of the batch
+	 */
+	private void reloadConfigFileNode(ZooKeeper client, String zkConfigFileNodePath, List<ConfigUpdate> updates,
+			Map<String, NodeVersion> stagedVersionMap) throws KeeperException, InterruptedException {
+		if (StringUtil.isNotEmpty(zkConfigFileNodePath)) {
+			String[] array = StringUtil.split(zkConfigFileNodePath, PATH_SEP);
+			if (CollectionUtil.isNotEmpty(array)) {
+				String configFileName = array[array.length - 1];
+				Stat stat = new Stat();
+				byte[] value;
+				try {
+					value = client.getData(zkConfigFileNodePath, dataWatcher, stat);
+				} catch (KeeperException.NoNodeException e) {
+					// deleted, removed by the children reload
+					return;
+				}
+				if (null != value && recordVersion(configFileName, stat, value, stagedVersionMap)) {
+					updates.add(new ConfigUpdate(configFileName, value));
+				}
+			}
+		}
+	}
+
+	/**
+	 * the session was rebuilt and all watches were lost with the old one, re-arm them and read config file nodes
+	 * changed since, compared by mzxid, all changes are delivered as one batch
+	 * 会话重建后重新注册监听，并按mzxid比对只读取期间变化的配置文件
+	 *
+	 * @param client           client of the new session
+	 * @param updates          collect changes
+	 * @param stagedVersionMap collect versions of the batch
+	 */
+	private void catchUp(ZooKeeper client, List<ConfigUpdate> updates, Map<String, NodeVersion> stagedVersionMap)
+			throws KeeperException, InterruptedException {
+		long startTs = System.nanoTime();
+		List<String> configFileNameList = client.getChildren(rootPath, childrenWatcher);
+		Set<String> childrenSet = null == configFileNameList ? new HashSet<>() : new HashSet<>(configFileNameList);
+		int unchanged = 0;
+		for (String configFileName : childrenSet) {
+			if (StringUtil.isEmpty(configFileName)) {
+				continue;
+			}
+			String childrenPath = StringUtil.concat(rootPath, PATH_SEP, configFileName);
+			// exists re-arms the data watch without transferring data
+			Stat stat = client.exists(childrenPath, dataWatcher);
+			if (null == stat) {
+				continue;
+			}
+			NodeVersion last = lastVersion(configFileName, stagedVersionMap);
+			if (null != last && last.mzxid == stat.getMzxid()) {
+				unchanged++;
+				reloadCounter.miss();
+				continue;
+			}
+			byte[] value = client.getData(childrenPath, dataWatcher, stat);
+			if (null == value) {
+				continue;
+			}
+			if (recordVersion(configFileName, stat, value, stagedVersionMap)) {
+				updates.add(new ConfigUpdate(configFileName, value));
+			} else {
+				unchanged++;
+			}
+		}
+		for (String configFileName : knownConfigFileNames(stagedVersionMap)) {
+			if (!childrenSet.contains(configFileName)) {
+				stagedVersionMap.put(configFileName, null);
+				reloadCounter.hit();
+				updates.add(ConfigUpdate.deleted(configFileName));
+			}
+		}
+		log.info(StringUtil.concat("catchUp rootPath=", rootPath, ", sessionId=0x", Long.toHexString(client.getSessionId()),
+								   ", unchanged=", unchanged, ", updates=", updates, ", cost=", System.nanoTime() - startTs,
+								   "ns"));
+	}
+
+	/**
+	 * queue a changed path for the reload worker, a path queued twice before drained is read once
+	 *
+	 * @param zkConfigFileNodePath NULL for children of module's node
+	 */
+	private void enqueue(String zkConfigFileNodePath) {
+		synchronized (pendingPaths) {
+			if (null == zkConfigFileNodePath) {
+				childrenPending = true;
+			} else {
+				pendingPaths.add(zkConfigFileNodePath);
+			}
+			scheduleDrain(0L);
+		}
+	}
+
+	/**
+	 * queue a catch-up of the whole module, it covers all queued paths
+	 */
+	private void enqueueCatchUp() {
+		synchronized (pendingPaths) {
+			catchUpPending = true;
+			scheduleDrain(0L);
+		}
+	}
+
+	/**
+	 * guarded by pendingPaths
+	 *
+	 * @param delayMillis
+	 */
+	private void scheduleDrain(long delayMillis) {
+		if (!drainScheduled && !closed) {
+			drainScheduled = true;
+			reloadExecutor.schedule(this::drain, delayMillis, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/**
+	 * read all queued changes and deliver them as one batch, until nothing is queued
+	 * 批量处理队列中的变更，每批作为一次变更投递
+	 */
+	private void drain() {
+		while (true) {
+			boolean snapshot;
+			boolean catchUp;
+			boolean children;
+			List<String> paths;
+			synchronized (pendingPaths) {
+				if (closed || (!snapshotPending && !catchUpPending && !childrenPending && pendingPaths.isEmpty())) {
+					// changes queued from now on schedule a new drain
+					drainScheduled = false;
+					return;
+				}
+				snapshot = snapshotPending;
+				catchUp = catchUpPending;
+				children = childrenPending;
+				paths = new ArrayList<>(pendingPaths);
+				snapshotPending = false;
+				catchUpPending = false;
+				childrenPending = false;
+				pendingPaths.clear();
+			}
+			long startTs = System.nanoTime();
+			List<ConfigUpdate> updates = new ArrayList<>();
+			// versions read by the batch, NULL for deleted, recorded only after the batch is delivered
+			Map<String, NodeVersion> stagedVersionMap = new HashMap<>();
+			try {
+				ZooKeeper client = getClient();
+				if (snapshot) {
+					// reads every node and arms all watches, covering everything queued
+					Map<String, byte[]> files = fetchSnapshot();
+					ConfigSourceListener current = listener;
+					if (null != current) {
+						current.onSnapshot(files);
+					}
+				} else if (catchUp) {
+					// re-reads every node by mzxid, covering queued paths
+					catchUp(client, updates, stagedVersionMap);
+					watchedSessionId = client.getSessionId();
+				} else {
+					if (children) {
+						reloadChildren(client, updates, stagedVersionMap);
+					}
+					for (String path : paths) {
+						reloadConfigFileNode(client, path, updates, stagedVersionMap);
+					}
+				}
+				deliver(updates);
+				commitVersions(stagedVersionMap);
+				health = ConfigSourceHealth.up();
+			} catch (Throwable e) {
+				health = ConfigSourceHealth.degraded("reload exception: " + e);
+				log.error(StringUtil.concat("reload batch exception, retry after ", RETRY_DELAY_MILLIS, "ms, rootPath=",
+											rootPath, ", snapshot=", snapshot, ", catchUp=", catchUp, ", children=", children,
+											", paths=", paths), e);
+				synchronized (pendingPaths) {
+					// read them all again, versions of the failed batch were not recorded, so nothing is skipped
+					snapshotPending |= snapshot;
+					catchUpPending |= catchUp;
+					childrenPending |= children;
+					pendingPaths.addAll(paths);
+					drainScheduled = false;
+					scheduleDrain(RETRY_DELAY_MILLIS);
+				}
+				return;
+			}
+			log.info(StringUtil.concat("reload batch rootPath=", rootPath, ", snapshot=", snapshot, ", catchUp=", catchUp, ", children=", children,
+									   ", paths=", paths.size(), ", updates=", updates.size(), ", cost=",
+									   System.nanoTime() - startTs, "ns"));
+		}
+	}
+
+	/**
+	 * stage version of a config file node just read and count it
+	 * 记录配置文件节点的版本，判断内容是否变化
+	 *
+	 * @param configFileName
+	 * @param stat             stat of the data read
+	 * @param value            data read
+	 * @param stagedVersionMap versions of the batch
+	 * @return false if the data is the same as the last read one, by mzxid or by content
+	 */
+	private boolean recordVersion(String configFileName, Stat stat, byte[] value, Map<String, NodeVersion> stagedVersionMap) {
+		NodeVersion last = lastVersion(configFileName, stagedVersionMap);
+		boolean changed;
+		if (null != last && last.mzxid == stat.getMzxid()) {
+			// the same modification read twice, like an event after the catch-up has read it
+			changed = false;
+		} else {
+			NodeVersion current = new NodeVersion(stat, value);
+			stagedVersionMap.put(configFileName, current);
+			// set again with the same content
+			changed = null == last || last.contentHash != current.contentHash;
+		}
+		reloadCounter.record(changed);
+		if (!changed && log.isDebugEnabled()) {
+			log.debug(StringUtil.concat("skip unchanged config file, rootPath=", rootPath, ", configFileName=", configFileName,
+										", last=", last, ", version=", stat.getVersion()));
+		}
+		return changed;
+	}
+
+	/**
+	 * version last read in the batch, or last delivered
+	 *
+	 * @param configFileName
+	 * @param stagedVersionMap versions of the batch
+	 * @return NULL if unknown or deleted
+	 */
+	private NodeVersion lastVersion(String configFileName, Map<String, NodeVersion> stagedVersionMap) {
+		if (stagedVersionMap.containsKey(configFileName)) {
+			return stagedVersionMap.get(configFileName);
+		}
+		return versionMap.get(configFileName);
+	}
+
+	/**
+	 * names of config file nodes known by the batch
+	 *
+	 * @param stagedVersionMap versions of the batch
+	 * @return
+	 */
+	private Set<String> knownConfigFileNames(Map<String, NodeVersion> stagedVersionMap) {
+		Set<String> configFileNameSet = new HashSet<>(versionMap.keySet());
+		for (Map.Entry<String, NodeVersion> entry : stagedVersionMap.entrySet()) {
+			if (null == entry.getValue()) {
+				configFileNameSet.remove(entry.getKey());
+			} else {
+				configFileNameSet.add(entry.getKey());
+			}
+		}
+		return configFileNameSet;
+	}
+
+	/**
+	 * record versions of a delivered batch, so that a failed batch is read again as a whole
+	 *
+	 * @param stagedVersionMap versions of the batch, NULL for deleted
+	 */
+	private void commitVersions(Map<String, NodeVersion> stagedVersionMap) {
+		for (Map.Entry<String, NodeVersion> entry : stagedVersionMap.entrySet()) {
+			if (null == entry.getValue()) {
+				versionMap.remove(entry.getKey());
+			} else {
+				versionMap.put(entry.getKey(), entry.getValue());
+			}
+		}
+	}
+
+	private void deliver(List<ConfigUpdate> updates) {
+		ConfigSourceListener current = listener;
+		if (null != current && !updates.isEmpty()) {
+			current.onChange(updates);
+		}
+	}
+
+	private synchronized ZooKeeper getClient() throws IOException {
+		if (closed) {
+			throw new IOException("zookeeper source is closed, rootPath=" + rootPath);
+		}
+		if (null == session) {
+			session = ZkSession.acquire(connectAddress);
+			session.addStateWatcher(stateWatcher);
+		}
+		return session.getClient();
+	}
+
+	/**
+	 * watch children of module's node, this happens when config file added or deleted
+	 */
+	private final Watcher childrenWatcher = event -> {
+		if (!closed && null != event && null != event.getType()) {
+			if (Watcher.Event.EventType.NodeChildrenChanged.getIntValue() == event.getType().getIntValue()) {
+				// add new config file or delete config file
+				enqueue(null);
+			}
+		}
+	};
+
+	/**
+	 * watch node's update or delete in zookeeper, this happens when config file changed or deleted
+	 */
+	private final Watcher dataWatcher = event -> {
+		if (!closed && null != event && null != event.getType()) {
+			if (Watcher.Event.EventType.NodeDataChanged.getIntValue() == event.getType().getIntValue()) {
+				// 配置文件节点变更
+				enqueue(event.getPath());
+			} else if (Watcher.Event.EventType.NodeDeleted.getIntValue() == event.getType().getIntValue()) {
+				// the data watch is used up, read the node again in case it is re-created under the same name before
+				// children are read, which a children reload alone skips as known, otherwise the deletion is delivered
+				// by the children reload
+				enqueue(event.getPath());
+				enqueue(null);
+			}
+		}
+	};
+
+	/**
+	 * watch connection state of the shared session, re-arm watches when connected to a new session
+	 */
+	private final Watcher stateWatcher = this::onStateChanged;
+
+	private void onStateChanged(WatchedEvent event) {
+		if (closed || null == event) {
+			return;
+		}
+		switch (event.getState()) {
+			case Disconnected:
+				health = ConfigSourceHealth.degraded("disconnected from zookeeper");
+				break;
+			case Expired:
+				health = ConfigSourceHealth.down("zookeeper session expired");
+				break;
+			case SyncConnected:
+				try {
+					long sessionId = getClient().getSessionId();
+					long watched = watchedSessionId;
+					// watches are kept by ZooKeeper when reconnected within the same session
+					if (0L == watched) {
+						// never read successfully, the pending read is retried now instead of after its delay
+						synchronized (pendingPaths) {
+							if (snapshotPending && !drainScheduled) {
+								scheduleDrain(0L);
+							}
+						}
+					} else if (watched != sessionId) {
+						enqueueCatchUp();
+					} else {
+						health = ConfigSourceHealth.up();
+					}
+				} catch (Throwable e) {
+					health = ConfigSourceHealth.degraded("catch up exception: " + e);
+					log.error("catch up exception, rootPath=" + rootPath + ", event=" + event, e);
+				}
+				break;
+			default:
+				break;
+		}
+	}
+
+	/**
+	 * version of a config file node's data last read
+	 */
+	private static final class NodeVersion {
+
+		// zxid of the last modification
+		private final long mzxid;
+		// data version of the node
+		private final int version;
+		// length and crc32 of the data
+		private final long contentHash;
+
+		NodeVersion(Stat stat, byte[] data) {
+			this.mzxid = stat.getMzxid();
+			this.version = stat.getVersion();
+			CRC32 crc32 = new CRC32();
+			crc32.update(data, 0, data.length);
+			this.contentHash = ((long) data.length << 32) | crc32.getValue();
+		}
+
+		@Override
+		public String toString() {
+			return "NodeVersion [mzxid=" + mzxid + ", version=" + version + ", contentHash=" + Long.toHexString(contentHash)
+					+ "]";
+		}
+	}
+
+	@Override
+	public ConfigSourceHealth getHealth() {
+		return health;
+	}
+
+	@Override
+	public synchronized void close() {
+		closed = true;
+		listener = null;
+		if (null != session) {
+			// the session is closed when no other source uses it
+			session.removeStateWatcher(stateWatcher);
+			session.release();
+			session = null;
+		}
+		health = ConfigSourceHealth.down("closed");
+	}
+}
@@ -0,0 +1,221 @@
+package com.extantfuture.mars.zk;
+
+import org.apache.log4j.Logger;
+import org.apache.zookeeper.WatchedEvent;
+import org.apache.zookeeper.Watcher;
+import org.apache.zookeeper.ZooKeeper;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * one ZooKeeper session shared by all config sources of the same connect address
+ * 同一ZooKeeper地址的所有配置来源共用一个会话
+ * <p>
+ * every module namespace watches its own nodes through the shared client, node events are routed by ZooKeeper to
+ * the watcher registered on the node, and connection state events of the session are multiplexed to the state
+ * watchers of all sources. a session is closed when the last source releases it.
+ * when the session expires, all watches are lost with it, the client is rebuilt with backoff and sources seeing
+ * SyncConnected of a new session id re-arm their watches
+ * </p>
+ *
+ * @author Rambo, <rambo@extantfuture.com>
+ * @date 2017/7/13 上午10:30
+ */
+public class ZkSession implements Watcher {
+
+	private static final Logger log = Logger.getLogger(ZkSession.class.getSimpleName());
+	// timeout config for ZooKeeper connection session
+	private static final int SESSION_TIMEOUT = 60000;
+	// backoff of rebuilding an expired session, doubled on each consecutive failure
+	private static final long MIN_RECOVER_BACKOFF_MILLIS = 1000L;
+	private static final long MAX_RECOVER_BACKOFF_MILLIS = 60000L;
+	// connect address -> shared session, guarded by itself
+	private static final Map<String, ZkSession> sessionMap = new HashMap<>();
+	// thread to rebuild expired sessions, never on ZooKeeper's event thread
+	private static final ScheduledExecutorService recoverExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+		Thread thread = new Thread(r, "mars-zk-session-recover");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	private final String connectAddress;
+	// count of sources using the session, guarded by sessionMap
+	private int refCount;
+	// client of ZooKeeper, created on first use
+	private ZooKeeper zooKeeper;
+	// watchers of connection state events
+	private final List<Watcher> stateWatcherList = new CopyOnWriteArrayList<>();
+	// whether a rebuild is scheduled, guarded by this
+	private boolean recoverScheduled;
+	// consecutive expiries or failed rebuilds without connecting, guarded by this
+	private int recoverFailures;
+	private boolean closed;
+
+	private ZkSession(String connectAddress) {
+		this.connectAddress = connectAddress;
+	}
+
+	/**
+	 * get the shared session of connect address and hold it until {@link #release()}
+	 * 获取共享会话，使用完需要释放
+	 *
+	 * @param connectAddress
+	 * @return
+	 */
+	public static ZkSession acquire(String connectAddress) {
+		Objects.requireNonNull(connectAddress, "zookeeper connect address is NULL!");
+		synchronized (sessionMap) {
+			ZkSession session = sessionMap.get(connectAddress);
+			if (null == session) {
+				session = new ZkSession(connectAddress);
+				sessionMap.put(connectAddress, session);
+			}
+			session.refCount++;
+			return session;
+		}
+	}
+
+	/**
+	 * release the session, it is closed when no source uses it
+	 * 释放会话，无人使用时关闭
+	 */
+	public void release() {
+		synchronized (sessionMap) {
+			if (refCount <= 0) {
+				return;
+			}
+			refCount--;
+			if (refCount > 0) {
+				return;
+			}
+			sessionMap.remove(connectAddress);
+		}
+		stateWatcherList.clear();
+		synchronized (this) {
+			closed = true;
+			close();
+		}
+	}
+
+	/**
+	 * client of the session, connecting on first call
+	 *
+	 * @return
+	 * @throws IOException
+	 */
+	public synchronized ZooKeeper getClient() throws IOException {
+		if (closed) {
+			throw new IOException("zookeeper session is closed, connectAddress=" + connectAddress);
+		}
+		if (null == zooKeeper) {
+			zooKeeper = new ZooKeeper(connectAddress, SESSION_TIMEOUT, this);
+			log.info("connect zookeeper, connectAddress=" + connectAddress);
+		}
+		return zooKeeper;
+	}
+
+	/**
+	 * watch connection state events of the session, like Disconnected, SyncConnected and Expired
+	 * 监听会话连接状态事件
+	 *
+	 * @param watcher
+	 */
+	public void addStateWatcher(Watcher watcher) {
+		if (null != watcher) {
+			stateWatcherList.add(watcher);
+		}
+	}
+
+	public void removeStateWatcher(Watcher watcher) {
+		stateWatcherList.remove(watcher);
+	}
+
+	/**
+	 * default watcher of the client, multiplex connection state events to all sources
+	 *
+	 * @param event
+	 */
+	@Override
+	public void process(WatchedEvent event) {
+		if (null == event || Event.EventType.None != event.getType()) {
+			// node events are delivered to the watchers registered on the nodes
+			return;
+		}
+		log.info("zookeeper state changed, connectAddress=" + connectAddress + ", state=" + event.getState());
+		if (Event.KeeperState.Expired == event.getState()) {
+			scheduleRecover();
+		} else if (Event.KeeperState.SyncConnected == event.getState()) {
+			synchronized (this) {
+				recoverFailures = 0;
+			}
+		}
+		for (Watcher watcher : stateWatcherList) {
+			try {
+				watcher.process(event);
+			} catch (Throwable e) {
+				log.error("state watcher exception, connectAddress=" + connectAddress + ", event=" + event, e);
+			}
+		}
+	}
+
+	/**
+	 * rebuild the client after backoff, the delay doubles on consecutive failures up to MAX_RECOVER_BACKOFF_MILLIS
+	 */
+	private synchronized void scheduleRecover() {
+		if (closed || recoverScheduled) {
+			return;
+		}
+		recoverScheduled = true;
+		long delay = Math.min(MAX_RECOVER_BACKOFF_MILLIS, MIN_RECOVER_BACKOFF_MILLIS << Math.min(recoverFailures, 16));
+		recoverFailures++;
+		log.warn("zookeeper session expired, rebuild it after " + delay + "ms, connectAddress=" + connectAddress
+						 + ", failures=" + recoverFailures);
+		recoverExecutor.schedule(this::recover, delay, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * close the expired client and create a new one, sources re-arm their watches when it connects
+	 */
+	private void recover() {
+		synchronized (this) {
+			recoverScheduled = false;
+			if (closed || (null != zooKeeper && zooKeeper.getState().isAlive())) {
+				// released, or already rebuilt
+				return;
+			}
+			close();
+			try {
+				zooKeeper = new ZooKeeper(connectAddress, SESSION_TIMEOUT, this);
+				log.info("rebuild zookeeper session, connectAddress=" + connectAddress);
+				return;
+			} catch (Throwable e) {
+				log.error("rebuild zookeeper session exception, connectAddress=" + connectAddress, e);
+			}
+		}
+		scheduleRecover();
+	}
+
+	public String getConnectAddress() {
+		return connectAddress;
+	}
+
+	private synchronized void close() {
+		if (null != zooKeeper) {
+			try {
+				zooKeeper.close();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			zooKeeper = null;
+			log.info("close zookeeper, connectAddress=" + connectAddress);
+		}
+	}
+}